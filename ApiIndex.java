@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public final class ApiIndex {
+
+    private static final String ROOT = "org/bukkit/";
+    private static final String IMPLEMENTATION = "org/bukkit/craftbukkit/";
+    private static final String EVENT_PACKAGE = "org.bukkit.event.";
+    private static final List<String> PREFERRED = List.of(
+            "org.bukkit.", "org.bukkit.entity.", "org.bukkit.command.", "org.bukkit.inventory.", "org.bukkit.block.");
+
+    private static final Map<String, ApiIndex> loaded = new ConcurrentHashMap<>();
+
+    private final Map<String, List<String>> bySimpleName = new HashMap<>();
+
+    private ApiIndex(String classNames) {
+        for (String name : classNames.split("\n")) {
+            if (!name.isEmpty()) {
+                bySimpleName.computeIfAbsent(name.substring(name.lastIndexOf('.') + 1), k -> new ArrayList<>()).add(name);
+            }
+        }
+    }
+
+    public static ApiIndex load(BuildCache cache, List<String> classpath) {
+        StringBuilder names = new StringBuilder();
+        StringBuilder fingerprint = new StringBuilder();
+        for (String entry : classpath) {
+            Path jar = Paths.get(entry);
+            if (!Files.isRegularFile(jar)) {
+                continue;
+            }
+            try {
+                String key = BuildCache.key("api-index", jar.toAbsolutePath().toString(),
+                        String.valueOf(Files.size(jar)), String.valueOf(Files.getLastModifiedTime(jar).toMillis()));
+                names.append(cache.text(key, () -> scan(jar)));
+                fingerprint.append(key);
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("No se pudo indexar " + jar + ": " + e.getMessage());
+            }
+        }
+        return loaded.computeIfAbsent(fingerprint.toString(), k -> new ApiIndex(names.toString()));
+    }
+
+    public boolean isEmpty() {
+        return bySimpleName.isEmpty();
+    }
+
+    public String eventClass(String eventName) {
+        if (eventName.isEmpty()) {
+            return null;
+        }
+        String simpleName = Character.toUpperCase(eventName.charAt(0)) + eventName.substring(1);
+        if (!simpleName.endsWith("Event")) {
+            simpleName += "Event";
+        }
+        for (String candidate : bySimpleName.getOrDefault(simpleName, List.of())) {
+            if (candidate.startsWith(EVENT_PACKAGE)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public String qualify(String simpleName) {
+        List<String> candidates = bySimpleName.get(simpleName);
+        if (candidates == null) {
+            return null;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        for (String pkg : PREFERRED) {
+            for (String candidate : candidates) {
+                if (candidate.startsWith(pkg) && candidate.indexOf('.', pkg.length()) < 0) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String scan(Path jar) {
+        TreeSet<String> names = new TreeSet<>();
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.startsWith(ROOT) && !name.startsWith(IMPLEMENTATION) && name.endsWith(".class") && name.indexOf('$') < 0
+                        && !name.endsWith("package-info.class")) {
+                    names.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        StringBuilder sb = new StringBuilder();
+        names.forEach(name -> sb.append(name).append('\n'));
+        return sb.toString();
+    }
+}
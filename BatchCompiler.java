@@ -0,0 +1,139 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public final class BatchCompiler {
+
+    private record Outcome(Path script, boolean success, long nanos, int commands, String log, String metrics) {
+    }
+
+    private BatchCompiler() {
+    }
+
+    public static boolean run(CompilationContext options, List<String> inputs) {
+        List<Path> scripts;
+        try {
+            scripts = expand(options, inputs);
+        } catch (IOException e) {
+            options.err.println("Error: " + e.getMessage());
+            return false;
+        }
+        if (scripts.isEmpty()) {
+            options.err.println("Error: no se encontró ningún script .js en " + inputs);
+            return false;
+        }
+        Map<String, Path> outputs = new HashMap<>();
+        for (Path script : scripts) {
+            Path previous = outputs.putIfAbsent(outputName(script), script);
+            if (previous != null) {
+                options.err.println("Error: " + previous + " y " + script + " se compilarían en la misma carpeta "
+                        + options.outputDir.resolve(outputName(script)) + "; renombra uno de los scripts.");
+                return false;
+            }
+        }
+
+        int jobs = options.jobs > 0 ? options.jobs : Runtime.getRuntime().availableProcessors();
+        if (!options.quiet) {
+            options.out.println("Compilando " + scripts.size() + " scripts con " + jobs + " hilos...");
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(jobs);
+        List<Outcome> outcomes;
+        try {
+            outcomes = pool.submit(() -> scripts.parallelStream().map(s -> compile(options, s)).toList()).join();
+        } finally {
+            pool.shutdown();
+        }
+        long wall = System.nanoTime() - start;
+
+        int ok = 0;
+        int commands = 0;
+        long busy = 0;
+        for (Outcome outcome : outcomes) {
+            String name = outcome.script().getFileName().toString();
+            long millis = TimeUnit.NANOSECONDS.toMillis(outcome.nanos());
+            if (outcome.success()) {
+                ok++;
+                commands += outcome.commands();
+                if (!options.quiet) {
+                    options.out.println("[OK]    " + name + " (" + millis + " ms, " + outcome.commands() + " comandos)");
+                }
+            } else {
+                options.out.println("[FALLO] " + name + " (" + millis + " ms)");
+                outcome.log().lines().forEach(line -> options.out.println("        " + line));
+            }
+            busy += outcome.nanos();
+        }
+        Main.writeMetrics(options, outcomes.stream().map(Outcome::metrics).toList(), true);
+
+        double seconds = wall / 1e9;
+        if (options.quiet) {
+            return ok == outcomes.size();
+        }
+        options.out.println();
+        options.out.printf("Scripts: %d correctos, %d fallidos en %d ms%n",
+                ok, outcomes.size() - ok, TimeUnit.NANOSECONDS.toMillis(wall));
+        options.out.printf("Rendimiento: %.1f scripts/s, %.1f comandos/s, paralelismo efectivo %.2fx%n",
+                outcomes.size() / seconds, commands / seconds, (double) busy / wall);
+        return ok == outcomes.size();
+    }
+
+    private static Outcome compile(CompilationContext options, Path script) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream log = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+        CompilationContext ctx = options.forScript(script, options.outputDir.resolve(outputName(script)), log);
+
+        long start = System.nanoTime();
+        boolean success = Main.build(ctx);
+        long nanos = System.nanoTime() - start;
+        return new Outcome(script, success, nanos, ctx.commandCount, buffer.toString(StandardCharsets.UTF_8),
+                ctx.metrics.toJson(ctx, success));
+    }
+
+    private static String outputName(Path script) {
+        return script.getFileName().toString().replaceFirst("\\.js$", "");
+    }
+
+    private static List<Path> expand(CompilationContext options, List<String> inputs) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        for (String input : inputs) {
+            Path path = options.baseDir.resolve(input);
+            if (Files.isDirectory(path)) {
+                List<Path> found;
+                try (Stream<Path> files = Files.list(path)) {
+                    found = files.filter(p -> p.toString().endsWith(".js") && Files.isRegularFile(p))
+                            .sorted()
+                            .toList();
+                }
+                Set<Path> modules = new HashSet<>();
+                for (Path script : found) {
+                    try {
+                        ScriptModules.load(script, Files.readString(script)).stream()
+                                .skip(1)
+                                .filter(module -> module.tree().plugin() == null)
+                                .forEach(module -> modules.add(module.path()));
+                    } catch (IOException | RuntimeException e) {
+                        options.err.println("Aviso: " + script.getFileName() + ": " + e.getMessage());
+                    }
+                }
+                found.stream().filter(p -> !modules.contains(p.toAbsolutePath().normalize())).forEach(scripts::add);
+            } else {
+                scripts.add(path);
+            }
+        }
+        return scripts.stream().map(p -> p.toAbsolutePath().normalize()).distinct().toList();
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+public final class BuildCache {
+
+    private static final String SALT = compilerFingerprint();
+    private static final int MEMORY_ENTRIES = 4096;
+
+    private final Path dir;
+    private final Map<String, Object> memory;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private BuildCache(Path dir, Map<String, Object> memory) {
+        this.dir = dir;
+        this.memory = memory;
+    }
+
+    public static BuildCache open(Path dir) {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            System.err.println("No se pudo crear la caché en " + dir + ": " + e.getMessage());
+            return disabled();
+        }
+        return new BuildCache(dir, Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > MEMORY_ENTRIES;
+            }
+        }));
+    }
+
+    public static BuildCache disabled() {
+        return new BuildCache(null, Map.of());
+    }
+
+    public BuildCache session() {
+        return new BuildCache(dir, memory);
+    }
+
+    public boolean enabled() {
+        return dir != null;
+    }
+
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+    public static String key(String kind, String... parts) {
+        MessageDigest digest = sha256();
+        digest.update(SALT.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(kind.getBytes(StandardCharsets.UTF_8));
+        for (String part : parts) {
+            digest.update((byte) 0);
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public String text(String key, Supplier<String> compute) {
+        if (!enabled()) {
+            return compute.get();
+        }
+        Object cached = memory.get(key);
+        if (cached instanceof String text) {
+            hits.incrementAndGet();
+            return text;
+        }
+        Path file = dir.resolve(key + ".txt");
+        if (Files.isRegularFile(file)) {
+            try {
+                String text = Files.readString(file);
+                memory.put(key, text);
+                hits.incrementAndGet();
+                return text;
+            } catch (IOException e) {
+                System.err.println("Entrada de caché ilegible " + file + ": " + e.getMessage());
+            }
+        }
+        misses.incrementAndGet();
+        String text = compute.get();
+        memory.put(key, text);
+        store(file, text.getBytes(StandardCharsets.UTF_8));
+        return text;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, byte[]> classes(String key) {
+        if (!enabled()) {
+            return null;
+        }
+        Object cached = memory.get(key);
+        if (cached instanceof Map<?, ?> map) {
+            hits.incrementAndGet();
+            return (Map<String, byte[]>) map;
+        }
+        Path file = dir.resolve(key + ".classes");
+        if (!Files.isRegularFile(file)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            int count = in.readInt();
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            memory.put(key, classes);
+            hits.incrementAndGet();
+            return classes;
+        } catch (IOException e) {
+            System.err.println("Entrada de caché ilegible " + file + ": " + e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void putClasses(String key, Map<String, byte[]> classes) {
+        if (!enabled()) {
+            return;
+        }
+        memory.put(key, classes);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        store(dir.resolve(key + ".classes"), buffer.toByteArray());
+    }
+
+    private void store(Path file, byte[] content) {
+        try {
+            Path tmp = Files.createTempFile(dir, "entry", ".tmp");
+            Files.write(tmp, content);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("No se pudo guardar la entrada de caché " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String compilerFingerprint() {
+        CodeSource source = BuildCache.class.getProtectionDomain().getCodeSource();
+        if (source == null) {
+            return "unknown";
+        }
+        try {
+            Path location = Path.of(source.getLocation().toURI());
+            if (Files.isRegularFile(location)) {
+                return location.getFileName() + ":" + Files.size(location) + ":" + Files.getLastModifiedTime(location).toMillis();
+            }
+            try (Stream<Path> files = Files.list(location)) {
+                long newest = files.filter(p -> p.toString().endsWith(".class"))
+                        .mapToLong(p -> p.toFile().lastModified())
+                        .max()
+                        .orElse(0);
+                return location + ":" + newest;
+            }
+        } catch (IOException | URISyntaxException | SecurityException e) {
+            return "unknown";
+        }
+    }
+}
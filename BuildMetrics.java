@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+public final class BuildMetrics {
+
+    public record Phase(String name, long nanos, long allocatedBytes, int fragments) {
+    }
+
+    private final long start = System.nanoTime();
+    private final List<Phase> phases = new ArrayList<>();
+    private final LongAdder workerAllocated = new LongAdder();
+
+    private String current;
+    private long phaseStart;
+    private long phaseAllocated;
+
+    public void begin(String name) {
+        end(0);
+        current = name;
+        workerAllocated.reset();
+        phaseAllocated = allocatedBytes();
+        phaseStart = System.nanoTime();
+    }
+
+    public void end(int fragments) {
+        if (current == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - phaseStart;
+        long allocated = allocatedBytes() - phaseAllocated + workerAllocated.sumThenReset();
+        phases.add(new Phase(current, nanos, allocated, fragments));
+        current = null;
+    }
+
+    public <T, R> Function<T, R> tracked(Function<T, R> task) {
+        Thread caller = Thread.currentThread();
+        return value -> {
+            if (Thread.currentThread() == caller) {
+                return task.apply(value);
+            }
+            long before = allocatedBytes();
+            try {
+                return task.apply(value);
+            } finally {
+                workerAllocated.add(allocatedBytes() - before);
+            }
+        };
+    }
+
+    public List<Phase> phases() {
+        return phases;
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+    public String summary() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%.1f ms", elapsedNanos() / 1e6));
+        String separator = " (";
+        for (Phase phase : phases) {
+            sb.append(separator).append(phase.name()).append(' ')
+                    .append(String.format(Locale.ROOT, "%.1f ms", phase.nanos() / 1e6));
+            separator = ", ";
+        }
+        return phases.isEmpty() ? sb.toString() : sb.append(')').toString();
+    }
+
+    public String toJson(CompilationContext ctx, boolean success) {
+        end(0);
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"script\": ").append(quote(String.valueOf(ctx.inputPath))).append(",\n");
+        sb.append("  \"plugin\": ").append(ctx.pluginName == null ? "null" : quote(ctx.pluginName)).append(",\n");
+        sb.append("  \"success\": ").append(success).append(",\n");
+        sb.append("  \"totalNanos\": ").append(elapsedNanos()).append(",\n");
+        sb.append("  \"modules\": ").append(ctx.moduleCount).append(",\n");
+        sb.append("  \"commands\": ").append(ctx.commandCount).append(",\n");
+        sb.append("  \"events\": ").append(ctx.eventCount).append(",\n");
+        sb.append("  \"cache\": {\"enabled\": ").append(ctx.buildCache.enabled())
+                .append(", \"hits\": ").append(ctx.buildCache.hits())
+                .append(", \"misses\": ").append(ctx.buildCache.misses()).append("},\n");
+        sb.append("  \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"name\": ").append(quote(phase.name()))
+                    .append(", \"nanos\": ").append(phase.nanos())
+                    .append(", \"allocatedBytes\": ").append(phase.allocatedBytes())
+                    .append(", \"fragments\": ").append(phase.fragments()).append('}');
+        }
+        sb.append(phases.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public static void write(Path file, List<String> reports, boolean asArray) throws IOException {
+        String json;
+        if (asArray) {
+            json = "[\n" + String.join(",\n", reports) + "\n]\n";
+        } else {
+            json = String.join("\n", reports) + "\n";
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(file, json);
+    }
+
+    @SuppressWarnings("deprecation")
+    public static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads) {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"'  -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class CompilationContext {
+
+    final Path baseDir;
+    final PrintStream out;
+    final PrintStream err;
+
+    Path inputPath = null;
+    Path outputDir;
+    Path cacheDir;
+    boolean customCache = false;
+    List<String> classpath = null;
+    JarPackager.Mode jarMode = JarPackager.Mode.DEFLATE;
+    boolean showProgress = true;
+    boolean quiet = false;
+    Path metricsFile = null;
+    Path rulesFile = null;
+    boolean watch = false;
+    boolean batch = false;
+    int jobs = 0;
+    int dataFlushSeconds = 0;
+    boolean dataJournal = false;
+    int fetchTimeoutSeconds = 10;
+    int fetchCacheSeconds = 0;
+    int fetchCacheSize = 256;
+    boolean stats = false;
+    int statsLogSeconds = 300;
+    boolean jfr = false;
+
+    BuildCache buildCache = BuildCache.disabled();
+    TranslationRules rules = TranslationRules.DEFAULTS;
+    final BuildMetrics metrics = new BuildMetrics();
+
+    String pluginName = null;
+    String pluginVersion = null;
+    String pluginPackage = null;
+
+    boolean usesData = false;
+    boolean usesDescription = false;
+
+    boolean usesFetch = false;
+    boolean usesJsonParse = false;
+    boolean usesPlayerData = false;
+
+    String dataFileName = "data.json";
+
+    final StringBuilder pluginCommands = new StringBuilder();
+    int moduleCount = 0;
+    int commandCount = 0;
+    int eventCount = 0;
+
+    final Map<String, String> javaSources = new LinkedHashMap<>();
+    Map<String, byte[]> compiledClasses = new LinkedHashMap<>();
+    String pluginYml = "";
+    final Map<String, String> commandExecutors = new LinkedHashMap<>();
+    String commandRegistrations = "";
+
+    CompilationContext(Path baseDir, PrintStream out, PrintStream err) {
+        this.baseDir = baseDir;
+        this.out = out;
+        this.err = err;
+        this.outputDir = baseDir.resolve("output");
+        this.cacheDir = outputDir.resolve(".cache");
+    }
+
+    CompilationContext forScript(Path script, Path scriptOutputDir, PrintStream scriptOut) {
+        CompilationContext ctx = new CompilationContext(baseDir, scriptOut, scriptOut);
+        ctx.inputPath = script;
+        ctx.outputDir = scriptOutputDir;
+        ctx.cacheDir = cacheDir;
+        ctx.customCache = true;
+        ctx.classpath = classpath;
+        ctx.jarMode = jarMode;
+        ctx.rulesFile = rulesFile;
+        ctx.dataFlushSeconds = dataFlushSeconds;
+        ctx.dataJournal = dataJournal;
+        ctx.fetchTimeoutSeconds = fetchTimeoutSeconds;
+        ctx.fetchCacheSeconds = fetchCacheSeconds;
+        ctx.fetchCacheSize = fetchCacheSize;
+        ctx.stats = stats;
+        ctx.statsLogSeconds = statsLogSeconds;
+        ctx.jfr = jfr;
+        ctx.showProgress = false;
+        ctx.quiet = quiet;
+        return ctx;
+    }
+}
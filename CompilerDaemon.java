@@ -0,0 +1,290 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public final class CompilerDaemon {
+
+    static final int DEFAULT_PORT = 7654;
+
+    private static final long DEBOUNCE_MS = 100;
+    private static final String EXIT_PREFIX = "#EXIT ";
+    private static final int USAGE_EXIT = 2;
+
+    private CompilerDaemon() {
+    }
+
+    public static void watch(String[] args) {
+        CompilationContext options = new CompilationContext(Paths.get(""), System.out, System.err);
+        List<String> inputs;
+        try {
+            inputs = Main.parseArgs(options, args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return;
+        }
+        Set<Path> entries = new HashSet<>();
+        Set<Path> dirs = new HashSet<>();
+        for (String input : inputs) {
+            Path path = Paths.get(input).toAbsolutePath().normalize();
+            if (Files.isDirectory(path)) {
+                dirs.add(path);
+            } else {
+                entries.add(path);
+            }
+        }
+
+        Main.runBuild(args);
+        String[] rebuildArgs = Arrays.copyOf(args, args.length + 1);
+        rebuildArgs[args.length] = "--no-progress";
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            Set<Path> registered = new HashSet<>();
+            Set<Path> files = register(watcher, registered, dirs, entries);
+            System.out.println("\nVigilando " + (files.isEmpty() ? dirs : files) + " (Ctrl+C para salir)");
+
+            while (true) {
+                Path changed = drain(watcher.take(), files);
+                WatchKey more;
+                while ((more = watcher.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    Path next = drain(more, files);
+                    changed = changed != null ? changed : next;
+                }
+                if (changed != null) {
+                    System.out.println("\nCambio detectado en " + changed.getFileName() + ", recompilando...");
+                    Main.runBuild(rebuildArgs);
+                    files = register(watcher, registered, dirs, entries);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error vigilando " + dirs + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Set<Path> register(WatchService watcher, Set<Path> registered, Set<Path> dirs, Set<Path> entries)
+            throws IOException {
+        Set<Path> files = new HashSet<>(entries);
+        for (Path entry : entries) {
+            try {
+                ScriptModules.load(entry, Files.readString(entry)).forEach(module -> files.add(module.path()));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("No se pudieron leer los módulos de " + entry.getFileName() + ": " + e.getMessage());
+            }
+        }
+        Set<Path> watched = new HashSet<>(dirs);
+        files.forEach(file -> watched.add(file.getParent()));
+        for (Path dir : watched) {
+            if (registered.add(dir)) {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        }
+        return files;
+    }
+
+    private static Path drain(WatchKey key, Set<Path> files) {
+        Path changed = null;
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path name) {
+                Path path = dir.resolve(name);
+                boolean relevant = files.isEmpty() ? name.toString().endsWith(".js") : files.contains(path);
+                if (relevant) {
+                    changed = path;
+                }
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    static Path tokenFile(int port) {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        Path base = cacheHome != null && !cacheHome.isEmpty()
+                ? Paths.get(cacheHome)
+                : Paths.get(System.getProperty("user.home"), ".cache");
+        return base.resolve("compilador").resolve("daemon-" + port + ".token");
+    }
+
+    private static String writeToken(Path file) throws IOException {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        Files.createDirectories(file.getParent());
+        Files.deleteIfExists(file);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+            file.toFile().setReadable(false, false);
+            file.toFile().setReadable(true, true);
+            file.toFile().setWritable(false, false);
+            file.toFile().setWritable(true, true);
+        }
+        Files.writeString(file, token);
+        return token;
+    }
+
+    public static void serve(int port) {
+        ExecutorService workers = Executors.newCachedThreadPool();
+        Path tokenFile = tokenFile(port);
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            String token = writeToken(tokenFile);
+            System.out.println("Compilador escuchando en " + server.getInetAddress().getHostAddress() + ":" + port
+                    + " (token en " + tokenFile + ")");
+            while (!server.isClosed()) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    break;
+                }
+                workers.execute(() -> {
+                    try (socket) {
+                        if (!handle(socket, token)) {
+                            stop(server);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Error en la conexión: " + e.getMessage());
+                    }
+                });
+            }
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir el puerto " + port + ": " + e.getMessage());
+        } finally {
+            workers.shutdown();
+            try {
+                Files.deleteIfExists(tokenFile);
+            } catch (IOException e) {
+                System.err.println("No se pudo borrar " + tokenFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void stop(ServerSocket server) throws IOException {
+        server.close();
+    }
+
+    private static boolean handle(Socket socket, String token) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+
+        String command = in.readLine();
+        if (command == null) {
+            return true;
+        }
+        if ((command.equals("BUILD") || command.equals("STOP")) && !authorized(in.readLine(), token)) {
+            out.println("Token del daemon incorrecto; lanza --client con el mismo usuario que inició --daemon.");
+            out.println(EXIT_PREFIX + USAGE_EXIT);
+            return true;
+        }
+        switch (command) {
+            case "PING" -> {
+                out.println("PONG");
+                return true;
+            }
+            case "STOP" -> {
+                out.println(EXIT_PREFIX + 0);
+                return false;
+            }
+            case "BUILD" -> {
+                String dir = in.readLine();
+                if (dir == null || dir.isEmpty()) {
+                    out.println("Falta el directorio de trabajo.");
+                    out.println(EXIT_PREFIX + USAGE_EXIT);
+                    return true;
+                }
+                Path workingDir = Paths.get(dir);
+                List<String> args = new ArrayList<>();
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    args.add(line);
+                }
+                args.add("--no-progress");
+
+                long start = System.nanoTime();
+                boolean ok = Main.runBuild(workingDir, args.toArray(new String[0]), out, out);
+                System.out.println((ok ? "OK " : "FALLO ") + workingDir + " " + String.join(" ", args) + " ("
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms)");
+                out.println(EXIT_PREFIX + (ok ? 0 : 1));
+                return true;
+            }
+            default -> {
+                out.println("Comando desconocido: " + command);
+                out.println(EXIT_PREFIX + USAGE_EXIT);
+                return true;
+            }
+        }
+    }
+
+    private static boolean authorized(String received, String token) {
+        return received != null && MessageDigest.isEqual(received.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static int submit(int port, String[] args) {
+        Path tokenFile = tokenFile(port);
+        String token;
+        try {
+            token = Files.readString(tokenFile).trim();
+        } catch (IOException e) {
+            System.err.println("No se pudo leer el token del daemon en " + tokenFile + "; inícialo con --daemon.");
+            return 1;
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+            out.print("BUILD\n");
+            out.print(token + "\n");
+            out.print(Paths.get("").toAbsolutePath() + "\n");
+            for (String arg : args) {
+                out.print(arg + "\n");
+            }
+            out.print("\n");
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(EXIT_PREFIX)) {
+                    return Integer.parseInt(line.substring(EXIT_PREFIX.length()).trim());
+                }
+                System.out.println(line);
+            }
+            System.err.println("El daemon cerró la conexión sin terminar la compilación.");
+            return 1;
+        } catch (ConnectException e) {
+            System.err.println("No hay ningún compilador escuchando en el puerto " + port + "; inícialo con --daemon.");
+            return 1;
+        } catch (IOException e) {
+            System.err.println("Error hablando con el daemon: " + e.getMessage());
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class InMemoryCompiler {
+
+    public record Result(boolean success,
+                         Map<String, byte[]> classes,
+                         Map<String, String> origins,
+                         List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+
+        public List<Diagnostic<? extends JavaFileObject>> errors() {
+            List<Diagnostic<? extends JavaFileObject>> errors = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+                if (d.getKind() == Diagnostic.Kind.ERROR) {
+                    errors.add(d);
+                }
+            }
+            return errors;
+        }
+    }
+
+    private InMemoryCompiler() {
+    }
+
+    public static Result compile(Map<String, String> sources, Map<String, byte[]> compiled, List<String> classpath) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No se encontró javac: ejecuta el compilador con un JDK, no un JRE.");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        Map<String, String> origins = new LinkedHashMap<>();
+
+        List<JavaFileObject> units = new ArrayList<>(sources.size());
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            units.add(new SourceFile(source.getKey(), source.getValue()));
+        }
+
+        List<String> options = List.of(
+                "-classpath", String.join(File.pathSeparator, classpath),
+                "-proc:none",
+                "-encoding", "UTF-8"
+        );
+
+        try (StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+             JavaFileManager fileManager = new MemoryFileManager(standard, compiled, classes, origins)) {
+            boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+            return new Result(success, classes, origins, diagnostics.getDiagnostics());
+        } catch (IOException e) {
+            throw new IllegalStateException("Error cerrando el gestor de archivos de javac: " + e.getMessage(), e);
+        }
+    }
+
+    public static String format(Diagnostic<? extends JavaFileObject> d) {
+        String unit = d.getSource() != null ? d.getSource().getName() : "?";
+        return unit + ":" + d.getLineNumber() + ": " + d.getKind().name().toLowerCase() + ": " + d.getMessage(null);
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String className;
+        private final String code;
+
+        SourceFile(String className, String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.className = className;
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    private static final class ClassFile extends SimpleJavaFileObject {
+        private final String className;
+        private final Map<String, byte[]> sink;
+
+        ClassFile(String className, Map<String, byte[]> sink) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.className = className;
+            this.sink = sink;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    sink.put(className, toByteArray());
+                }
+            };
+        }
+    }
+
+    private static final class CompiledClass extends SimpleJavaFileObject {
+        private final String className;
+        private final byte[] bytes;
+
+        CompiledClass(String className, byte[] bytes) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.className = className;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+        private final Map<String, byte[]> compiled;
+        private final Map<String, byte[]> classes;
+        private final Map<String, String> origins;
+
+        MemoryFileManager(JavaFileManager delegate, Map<String, byte[]> compiled, Map<String, byte[]> classes,
+                          Map<String, String> origins) {
+            super(delegate);
+            this.compiled = compiled;
+            this.classes = classes;
+            this.origins = origins;
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                             boolean recurse) throws IOException {
+            Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+            if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS) || compiled.isEmpty()) {
+                return listed;
+            }
+            List<JavaFileObject> files = new ArrayList<>();
+            for (Map.Entry<String, byte[]> entry : compiled.entrySet()) {
+                String name = entry.getKey();
+                String pkg = name.lastIndexOf('.') < 0 ? "" : name.substring(0, name.lastIndexOf('.'));
+                if (pkg.equals(packageName) || (recurse && pkg.startsWith(packageName + "."))) {
+                    files.add(new CompiledClass(name, entry.getValue()));
+                }
+            }
+            listed.forEach(files::add);
+            return files;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            return file instanceof CompiledClass compiledClass ? compiledClass.className : super.inferBinaryName(location, file);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            if (sibling instanceof SourceFile source) {
+                origins.put(className, source.className);
+            }
+            return new ClassFile(className, classes);
+        }
+    }
+}
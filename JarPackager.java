@@ -0,0 +1,151 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+public final class JarPackager {
+
+    public enum Mode {
+        STORE,
+        DEFLATE,
+        PARALLEL_DEFLATE;
+
+        public static Mode parse(String value) {
+            return switch (value.toLowerCase()) {
+                case "store"    -> STORE;
+                case "deflate"  -> DEFLATE;
+                case "parallel" -> PARALLEL_DEFLATE;
+                default -> throw new IllegalArgumentException("Modo de jar desconocido: " + value);
+            };
+        }
+    }
+
+    private JarPackager() {
+    }
+
+    public static void write(Path jarPath, Map<String, byte[]> files, Mode mode) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(JarFile.MANIFEST_NAME, manifest());
+        entries.putAll(files);
+
+        Files.createDirectories(jarPath.toAbsolutePath().getParent());
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(jarPath), 1 << 16)) {
+            if (mode == Mode.PARALLEL_DEFLATE) {
+                writeParallel(out, entries);
+            } else {
+                writeSequential(out, entries, mode == Mode.STORE);
+            }
+        }
+    }
+
+    private static void writeSequential(OutputStream out, Map<String, byte[]> entries, boolean store) throws IOException {
+        try (JarOutputStream jar = new JarOutputStream(out)) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                byte[] data = e.getValue();
+                JarEntry entry = new JarEntry(e.getKey());
+                if (store) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCompressedSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                jar.putNextEntry(entry);
+                jar.write(data);
+                jar.closeEntry();
+            }
+        }
+    }
+
+    private record Compressed(byte[] name, byte[] data, int size, long crc) {
+    }
+
+    private static void writeParallel(OutputStream out, Map<String, byte[]> entries) throws IOException {
+        List<Compressed> compressed = new ArrayList<>(entries.entrySet()).parallelStream()
+                .map(e -> compress(e.getKey(), e.getValue()))
+                .toList();
+
+        int dosTime = dosTime(LocalDateTime.now());
+        ByteBuffer header = ByteBuffer.allocate(46 + 0xFFFF).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream central = new ByteArrayOutputStream();
+        long offset = 0;
+
+        for (Compressed c : compressed) {
+            header.clear();
+            header.putInt(0x04034b50).putShort((short) 20).putShort((short) 0x0800).putShort((short) Deflater.DEFLATED)
+                    .putInt(dosTime).putInt((int) c.crc()).putInt(c.data().length).putInt(c.size())
+                    .putShort((short) c.name().length).putShort((short) 0).put(c.name());
+            out.write(header.array(), 0, header.position());
+            out.write(c.data());
+
+            header.clear();
+            header.putInt(0x02014b50).putShort((short) 20).putShort((short) 20).putShort((short) 0x0800)
+                    .putShort((short) Deflater.DEFLATED).putInt(dosTime).putInt((int) c.crc())
+                    .putInt(c.data().length).putInt(c.size()).putShort((short) c.name().length)
+                    .putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0)
+                    .putInt(0).putInt((int) offset).put(c.name());
+            central.write(header.array(), 0, header.position());
+
+            offset += 30L + c.name().length + c.data().length;
+        }
+
+        central.writeTo(out);
+        header.clear();
+        header.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+                .putShort((short) compressed.size()).putShort((short) compressed.size())
+                .putInt(central.size()).putInt((int) offset).putShort((short) 0);
+        out.write(header.array(), 0, header.position());
+    }
+
+    private static Compressed compress(String name, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return new Compressed(name.getBytes(StandardCharsets.UTF_8), out.toByteArray(), data.length, crc.getValue());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] manifest() throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Created-By"), "compilador");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        return out.toByteArray();
+    }
+
+    private static int dosTime(LocalDateTime t) {
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+}
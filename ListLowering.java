@@ -0,0 +1,432 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public final class ListLowering {
+
+    private static final Set<String> MUTATORS = Set.of("push", "add", "addAll", "remove", "removeIf", "splice",
+            "clear", "pop", "shift", "unshift");
+
+    private record Edit(int start, int end, String text) {
+    }
+
+    private final String code;
+    private final List<ScriptLexer.Token> tokens;
+    private final int[] matching;
+    private final Set<String> lists;
+    private final Set<String> arrays = new HashSet<>();
+    private final List<Edit> edits = new ArrayList<>();
+
+    private ListLowering(String code, List<ScriptLexer.Token> tokens, int[] matching, Set<String> listVars) {
+        this.code = code;
+        this.tokens = tokens;
+        this.matching = matching;
+        this.lists = new HashSet<>(listVars);
+        arrays.add("args");
+    }
+
+    public static String lower(String code, Set<String> listVars) {
+        if (!code.contains("for") && !code.contains(".join(") && !code.contains(".push(")
+                && (listVars.isEmpty() || !code.contains("["))) {
+            return code;
+        }
+        List<ScriptLexer.Token> tokens;
+        int[] matching;
+        try {
+            tokens = ScriptLexer.tokenize(code);
+            matching = matchBrackets(tokens);
+        } catch (RuntimeException e) {
+            return code;
+        }
+        return new ListLowering(code, tokens, matching, listVars).run();
+    }
+
+    private String run() {
+        collectDeclarations();
+        for (int i = 0; i < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (isMember(i, "push")) {
+                i = lowerPush(i);
+                continue;
+            }
+            if (t.kind() != ScriptLexer.Kind.IDENTIFIER || isPunct(i - 1, '.')) {
+                continue;
+            }
+            if (t.is("for") && isPunct(i + 1, '(')) {
+                int next = lowerForOf(i);
+                if (next < 0) {
+                    next = lowerIndexedFor(i);
+                }
+                if (next >= 0) {
+                    i = next;
+                }
+                continue;
+            }
+            if (!isPunct(i + 1, '.') && !isPunct(i + 1, '[')) {
+                continue;
+            }
+            int next = lowerJoin(i);
+            if (next < 0) {
+                next = lowerForEach(i);
+            }
+            if (next < 0) {
+                next = lowerListAccess(i);
+            }
+            if (next >= 0) {
+                i = next;
+            }
+        }
+        if (edits.isEmpty()) {
+            return code;
+        }
+        edits.sort(Comparator.comparingInt(Edit::start));
+        StringBuilder sb = new StringBuilder(code.length() + 32 * edits.size());
+        int copied = 0;
+        for (Edit edit : edits) {
+            sb.append(code, copied, edit.start()).append(edit.text());
+            copied = edit.end();
+        }
+        return sb.append(code, copied, code.length()).toString();
+    }
+
+    private void collectDeclarations() {
+        for (int i = 0; i + 3 < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.kind() != ScriptLexer.Kind.IDENTIFIER) {
+                continue;
+            }
+            if ((t.is("let") || t.is("const")) && isIdentifier(i + 1) && isPunct(i + 2, '=')
+                    && isPunct(i + 3, '[') && isPunct(i + 4, ']')) {
+                lists.add(tokens.get(i + 1).text());
+            } else if (isPunct(i + 1, '[') && isPunct(i + 2, ']') && isIdentifier(i + 3)) {
+                arrays.add(tokens.get(i + 3).text());
+            }
+        }
+    }
+
+    // args.slice(n).join(sep), list.join(sep)
+    private int lowerJoin(int i) {
+        String receiver = tokens.get(i).text();
+        if (!arrays.contains(receiver) && !lists.contains(receiver)) {
+            return -1;
+        }
+        int j = i + 1;
+        String from = "0";
+        if (isMember(j, "slice")) {
+            int open = j + 2;
+            int close = matching[open];
+            if (close == open + 1 || topLevelComma(open + 1, close) >= 0) {
+                return -1;
+            }
+            from = text(open + 1, close);
+            j = close + 1;
+        }
+        if (!isMember(j, "join")) {
+            return -1;
+        }
+        int open = j + 2;
+        int close = matching[open];
+        String separator = close == open + 1 ? "\",\"" : text(open + 1, close);
+        replace(i, close, "joinFrom(" + receiver + ", " + from + ", " + separator + ")");
+        return close;
+    }
+
+    // list.forEach(x => ...), list.forEach((x, i) => { ... })
+    private int lowerForEach(int i) {
+        if (!isMember(i + 1, "forEach")) {
+            return -1;
+        }
+        String receiver = tokens.get(i).text();
+        int callOpen = i + 3;
+        int callClose = matching[callOpen];
+        int p = callOpen + 1;
+        String element;
+        String index = null;
+        if (isPunct(p, '(')) {
+            int paramsClose = matching[p];
+            if (paramsClose == p + 2 && isIdentifier(p + 1)) {
+                element = tokens.get(p + 1).text();
+            } else if (paramsClose == p + 4 && isIdentifier(p + 1) && isPunct(p + 2, ',') && isIdentifier(p + 3)) {
+                element = tokens.get(p + 1).text();
+                index = tokens.get(p + 3).text();
+            } else {
+                return -1;
+            }
+            p = paramsClose + 1;
+        } else if (isIdentifier(p)) {
+            element = tokens.get(p).text();
+            p++;
+        } else {
+            return -1;
+        }
+        if (p >= callClose || !tokens.get(p).is("=>")) {
+            return -1;
+        }
+        boolean array = arrays.contains(receiver);
+        if (index != null && !array && !lists.contains(receiver)) {
+            return -1;
+        }
+
+        int bodyStart = p + 1;
+        boolean block = isPunct(bodyStart, '{') && matching[bodyStart] == callClose - 1;
+        List<Integer> returns = new ArrayList<>();
+        if (block && !callbackReturns(bodyStart, callClose - 1, returns)) {
+            return -1;
+        }
+        int end = isPunct(callClose + 1, ';') ? callClose + 1 : callClose;
+
+        String label = returns.isEmpty() ? "" : element + "$loop: ";
+        String head;
+        if (index != null) {
+            String counter = index + "$";
+            String bound = array ? receiver + ".length" : receiver + ".size()";
+            String get = array ? receiver + "[" + counter + "]" : receiver + ".get(" + counter + ")";
+            head = label + "for (int " + counter + " = 0; " + counter + " < " + bound + "; " + counter + "++) {"
+                    + " int " + index + " = " + counter + "; var " + element + " = " + get + ";";
+        } else if (lists.contains(receiver) && !mutates(receiver, bodyStart, callClose)) {
+            String counter = element + "$i";
+            head = label + "for (int " + counter + " = 0, " + element + "$n = " + receiver + ".size(); "
+                    + counter + " < " + element + "$n; " + counter + "++) { var " + element + " = "
+                    + receiver + ".get(" + counter + ");";
+        } else {
+            head = label + "for (var " + element + " : " + receiver + ") {";
+        }
+
+        for (int r : returns) {
+            replace(r, r, "continue " + element + "$loop");
+        }
+        if (block) {
+            replace(i, bodyStart, head);
+            replace(callClose, end, "");
+        } else {
+            edits.add(new Edit(tokens.get(i).start(), tokens.get(p).end(), head));
+            edits.add(new Edit(tokens.get(callClose).start(), tokens.get(end).end(), "; }"));
+        }
+        return bodyStart;
+    }
+
+    // list.push(a) -> list.add(a); list.push(a, b) -> Collections.addAll(list, a, b)
+    private int lowerPush(int dot) {
+        int open = dot + 2;
+        int close = matching[open];
+        int receiver = dot - 1;
+        if (topLevelComma(open + 1, close) < 0 || !isIdentifier(receiver) || isPunct(receiver - 1, '.')) {
+            replace(dot + 1, dot + 1, "add");
+            return dot + 1;
+        }
+        replace(receiver, open, "java.util.Collections.addAll(" + tokens.get(receiver).text() + ", ");
+        return open;
+    }
+
+    // list[i] -> list.get(i), list[i] = v -> list.set(i, v), list.length -> list.size()
+    private int lowerListAccess(int i) {
+        String receiver = tokens.get(i).text();
+        if (!lists.contains(receiver)) {
+            return -1;
+        }
+        if (isMember(i + 1, "length")) {
+            if (isPunct(i + 3, '(') || isPunct(i + 3, '=')) {
+                return -1;
+            }
+            replace(i + 1, i + 2, ".size()");
+            return i + 2;
+        }
+        if (!isPunct(i + 1, '[')) {
+            return -1;
+        }
+        int open = i + 1;
+        int close = matching[open];
+        if (isPunct(close + 1, '=') && !isPunct(close + 2, '=')) {
+            int end = statementEnd(close + 2);
+            if (end < 0) {
+                return -1;
+            }
+            replace(open, open, ".set(");
+            replace(close, close + 1, ",");
+            edits.add(new Edit(tokens.get(end).start(), tokens.get(end).start(), ")"));
+            return open;
+        }
+        replace(open, open, ".get(");
+        replace(close, close, ")");
+        return open;
+    }
+
+    // for (const x of xs) { ... }
+    private int lowerForOf(int i) {
+        int open = i + 1;
+        int close = matching[open];
+        if (close < open + 5 || !isDeclaration(open + 1) || !isIdentifier(open + 2) || !tokens.get(open + 3).is("of")
+                || !isPunct(close + 1, '{')) {
+            return -1;
+        }
+        String element = tokens.get(open + 2).text();
+        String modifier = tokens.get(open + 1).is("const") ? "final " : "";
+        String iterable = text(open + 4, close);
+        int bodyOpen = close + 1;
+        String head;
+        if (close == open + 5 && lists.contains(iterable) && !mutates(iterable, bodyOpen, matching[bodyOpen])) {
+            String counter = element + "$i";
+            head = "for (int " + counter + " = 0, " + element + "$n = " + iterable + ".size(); "
+                    + counter + " < " + element + "$n; " + counter + "++) { " + modifier + "var " + element + " = "
+                    + iterable + ".get(" + counter + ");";
+        } else {
+            head = "for (" + modifier + "var " + element + " : " + iterable + ") {";
+        }
+        replace(i, bodyOpen, head);
+        return bodyOpen;
+    }
+
+    // for (let i = 0; i < xs.length; i++) { ... }
+    private int lowerIndexedFor(int i) {
+        int open = i + 1;
+        int close = matching[open];
+        if (close != open + 15 || !tokens.get(open + 1).is("let") || !isIdentifier(open + 2)
+                || !isPunct(open + 3, '=') || !isPunct(open + 5, ';') || !isPunct(open + 7, '<')
+                || !isMember(open + 9, "length") || !isPunct(open + 11, ';')
+                || !isPunct(open + 13, '+') || !isPunct(open + 14, '+') || !isPunct(close + 1, '{')) {
+            return -1;
+        }
+        String counter = tokens.get(open + 2).text();
+        ScriptLexer.Token start = tokens.get(open + 4);
+        String receiver = tokens.get(open + 8).text();
+        if (!tokens.get(open + 6).is(counter) || !tokens.get(open + 12).is(counter) || !isIdentifier(open + 8)
+                || (start.kind() != ScriptLexer.Kind.NUMBER && start.kind() != ScriptLexer.Kind.IDENTIFIER)
+                || arrays.contains(receiver)) {
+            return -1;
+        }
+        int bodyOpen = close + 1;
+        String head;
+        if (lists.contains(receiver) && !mutates(receiver, bodyOpen, matching[bodyOpen])) {
+            head = "for (int " + counter + " = " + start.text() + ", " + counter + "$n = " + receiver + ".size(); "
+                    + counter + " < " + counter + "$n; " + counter + "++) {";
+        } else {
+            head = "for (int " + counter + " = " + start.text() + "; " + counter + " < " + receiver + ".size(); "
+                    + counter + "++) {";
+        }
+        replace(i, bodyOpen, head);
+        return bodyOpen;
+    }
+
+    private boolean callbackReturns(int open, int close, List<Integer> returns) {
+        for (int j = open + 1; j < close; j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if ((t.is("=>") || t.is("function")) && nextBlock(j) > 0) {
+                j = matching[nextBlock(j)];
+            } else if (t.isPunct('-') && isPunct(j + 1, '>') && isPunct(j + 2, '{')) {
+                j = matching[j + 2];
+            } else if (t.is("return") && !isPunct(j - 1, '.')) {
+                if (!isPunct(j + 1, ';')) {
+                    return false;
+                }
+                returns.add(j);
+            }
+        }
+        return true;
+    }
+
+    private int nextBlock(int j) {
+        for (int k = j + 1; k < tokens.size(); k++) {
+            if (isPunct(k, '{')) {
+                return k;
+            }
+            if (isPunct(k, ';') || isPunct(k, '}')) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean mutates(String name, int from, int to) {
+        for (int j = from; j < to; j++) {
+            if (!tokens.get(j).is(name) || isPunct(j - 1, '.')) {
+                continue;
+            }
+            if (isPunct(j + 1, '.') && j + 2 < tokens.size() && MUTATORS.contains(tokens.get(j + 2).text())) {
+                return true;
+            }
+            if (isPunct(j + 1, '=') && !isPunct(j + 2, '=')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int statementEnd(int from) {
+        int depth = 0;
+        for (int j = from; j < tokens.size(); j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.isPunct('(') || t.isPunct('[') || t.isPunct('{')) {
+                depth++;
+            } else if (t.isPunct(')') || t.isPunct(']') || t.isPunct('}')) {
+                if (--depth < 0) {
+                    return -1;
+                }
+            } else if (depth == 0 && t.isPunct(';')) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private int topLevelComma(int from, int to) {
+        for (int j = from; j < to; j++) {
+            if (isPunct(j, '(') || isPunct(j, '[') || isPunct(j, '{')) {
+                j = matching[j];
+            } else if (isPunct(j, ',')) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isMember(int dot, String name) {
+        return isPunct(dot, '.') && dot + 1 < tokens.size() && tokens.get(dot + 1).is(name)
+                && (name.equals("length") || isPunct(dot + 2, '('));
+    }
+
+    private boolean isDeclaration(int i) {
+        return i < tokens.size() && (tokens.get(i).is("let") || tokens.get(i).is("const") || tokens.get(i).is("var"));
+    }
+
+    private boolean isIdentifier(int i) {
+        return i < tokens.size() && tokens.get(i).kind() == ScriptLexer.Kind.IDENTIFIER;
+    }
+
+    private boolean isPunct(int i, char c) {
+        return i >= 0 && i < tokens.size() && tokens.get(i).isPunct(c);
+    }
+
+    private String text(int from, int to) {
+        return from >= to ? "" : code.substring(tokens.get(from).start(), tokens.get(to - 1).end());
+    }
+
+    private void replace(int first, int last, String text) {
+        edits.add(new Edit(tokens.get(first).start(), tokens.get(last).end(), text));
+    }
+
+    private static int[] matchBrackets(List<ScriptLexer.Token> tokens) {
+        int[] result = new int[tokens.size()];
+        Deque<Integer> open = new ArrayDeque<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.isPunct('(') || t.isPunct('[') || t.isPunct('{')) {
+                open.push(i);
+            } else if (t.isPunct(')') || t.isPunct(']') || t.isPunct('}')) {
+                if (open.isEmpty()) {
+                    throw new IllegalStateException("unbalanced");
+                }
+                int o = open.pop();
+                result[o] = i;
+                result[i] = o;
+            }
+        }
+        if (!open.isEmpty()) {
+            throw new IllegalStateException("unbalanced");
+        }
+        return result;
+    }
+}
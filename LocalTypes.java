@@ -0,0 +1,548 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public final class LocalTypes {
+
+    private static final String UNKNOWN = null;
+    private static final char INCREMENT = 'i';
+
+    private static final Map<String, String> CALL_TYPES = new HashMap<>();
+
+    static {
+        for (String call : List.of("length", "size", "indexOf", "lastIndexOf", "compareTo", "parseInt", "intValue",
+                "getBlockX", "getBlockY", "getBlockZ", "getLevel", "getFoodLevel", "getAmount", "getMaxPlayers",
+                "nextInt", "hashCode")) {
+            CALL_TYPES.put(call, "int");
+        }
+        for (String call : List.of("parseLong", "longValue", "currentTimeMillis", "nanoTime", "round", "getFirstPlayed",
+                "getLastPlayed", "getTime", "getFullTime", "nextLong")) {
+            CALL_TYPES.put(call, "long");
+        }
+        for (String call : List.of("parseDouble", "doubleValue", "random", "floor", "ceil", "sqrt", "pow", "getHealth",
+                "getMaxHealth", "getX", "getY", "getZ", "distance", "nextDouble")) {
+            CALL_TYPES.put(call, "double");
+        }
+        for (String call : List.of("equals", "equalsIgnoreCase", "isEmpty", "isBlank", "contains", "startsWith",
+                "endsWith", "matches", "isOnline", "isOp", "hasPermission", "isSneaking", "isFlying", "isDead",
+                "parseBoolean", "hasPlayedBefore", "isCancelled", "nextBoolean")) {
+            CALL_TYPES.put(call, "boolean");
+        }
+        for (String call : List.of("getName", "getDisplayName", "getMessage", "toLowerCase", "toUpperCase", "trim",
+                "strip", "substring", "replace", "replaceAll", "join", "toString", "valueOf", "format", "repeat",
+                "fetch", "joinFrom", "getString", "getJoinMessage", "getQuitMessage", "charAt")) {
+            CALL_TYPES.put(call, "String");
+        }
+        CALL_TYPES.put("getPlayer", "Player");
+        CALL_TYPES.put("getPlayerExact", "Player");
+        CALL_TYPES.put("getServer", "Server");
+        CALL_TYPES.put("getLocation", "Location");
+        CALL_TYPES.put("getWorld", "World");
+        CALL_TYPES.put("split", "String[]");
+    }
+
+    private static final Set<String> DECLARED_TYPES = Set.of("int", "long", "double", "boolean", "String",
+            "Player", "Server", "Location", "World", "JSONObject");
+
+    private final String code;
+    private final List<ScriptLexer.Token> tokens;
+    private final Map<String, String> symbols = new HashMap<>();
+    private final Map<String, List<Integer>> assignments = new HashMap<>();
+    private final Set<Integer> divisions = new TreeSet<>();
+    private final Set<String> resolving = new HashSet<>();
+    private final int[] scopeEnd;
+
+    private LocalTypes(String code, List<ScriptLexer.Token> tokens) {
+        this.code = code;
+        this.tokens = tokens;
+        this.scopeEnd = new int[tokens.size()];
+        symbols.put("args", "String[]");
+        index();
+    }
+
+    public static String infer(String code) {
+        if (!code.contains("let ") && !code.contains("const ")) {
+            return code;
+        }
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(code);
+        } catch (RuntimeException e) {
+            return code;
+        }
+        return new LocalTypes(code, tokens).run();
+    }
+
+    private String run() {
+        List<int[]> edits = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.kind() != ScriptLexer.Kind.IDENTIFIER || isPunct(i - 1, '.')) {
+                continue;
+            }
+            if (!t.is("let") && !t.is("const")) {
+                recordDeclaration(i);
+                continue;
+            }
+            ScriptLexer.Token name = tokens.get(i + 1);
+            if (name.kind() != ScriptLexer.Kind.IDENTIFIER) {
+                continue;
+            }
+
+            int assign = i + 2;
+            boolean initialized = isPunct(assign, '=');
+            int initEnd = initialized ? expressionEnd(assign + 1) : assign;
+            String type = initialized ? expressionType(assign + 1, initEnd) : UNKNOWN;
+            if (type != null) {
+                symbols.put(name.text(), type);
+            }
+            String resolved = widen(name.text(), type, initEnd);
+            if (resolved == null && initialized && inferable(assign + 1)) {
+                resolved = "var";
+            }
+            symbols.remove(name.text());
+            if (resolved != null && !resolved.equals("var")) {
+                symbols.put(name.text(), resolved);
+            }
+
+            if (initialized && initEnd == assign + 2 && tokens.get(assign + 1).kind() == ScriptLexer.Kind.NUMBER) {
+                ScriptLexer.Token literal = tokens.get(assign + 1);
+                if (numberType(literal.text()).equals("long") && !literal.text().toLowerCase().endsWith("l")) {
+                    edits.add(new int[] {literal.end(), literal.end()});
+                    texts.add("L");
+                }
+            }
+            String keyword = keyword(t, resolved);
+            if (!keyword.equals(t.text())) {
+                edits.add(new int[] {t.start(), t.end()});
+                texts.add(keyword);
+            }
+        }
+        for (int divisor : divisions) {
+            edits.add(new int[] {tokens.get(divisor).start(), tokens.get(divisor).start()});
+            texts.add("(double) ");
+        }
+        if (edits.isEmpty()) {
+            return code;
+        }
+
+        Integer[] order = new Integer[edits.size()];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(edits.get(a)[0], edits.get(b)[0]));
+        StringBuilder sb = new StringBuilder(code.length() + 16 * order.length);
+        int copied = 0;
+        for (int k : order) {
+            sb.append(code, copied, edits.get(k)[0]).append(texts.get(k));
+            copied = edits.get(k)[1];
+        }
+        return sb.append(code, copied, code.length()).toString();
+    }
+
+    private static String keyword(ScriptLexer.Token declaration, String type) {
+        if (declaration.is("const")) {
+            return "final " + (type != null ? type : "let");
+        }
+        return type != null ? type : "let";
+    }
+
+    private void recordDeclaration(int i) {
+        String type = tokens.get(i).text();
+        int next = i + 1;
+        if (isPunct(next, '[') && isPunct(next + 1, ']')) {
+            type += "[]";
+            next += 2;
+        } else if (type.equals("List") && isPunct(next, '<') && next + 2 < tokens.size()
+                && tokens.get(next + 1).is("String") && isPunct(next + 2, '>')) {
+            type = "List<String>";
+            next += 3;
+        } else if (!DECLARED_TYPES.contains(type)) {
+            return;
+        }
+        if (next + 1 < tokens.size() && tokens.get(next).kind() == ScriptLexer.Kind.IDENTIFIER && isPunct(next + 1, '=')) {
+            symbols.put(tokens.get(next).text(), type);
+        }
+    }
+
+    private void index() {
+        Deque<Integer> closers = new ArrayDeque<>();
+        for (int j = tokens.size() - 1; j >= 0; j--) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.isPunct('}') || t.isPunct(')')) {
+                closers.push(j);
+                scopeEnd[j] = j;
+                continue;
+            }
+            if ((t.isPunct('{') || t.isPunct('(')) && !closers.isEmpty()) {
+                closers.pop();
+            }
+            scopeEnd[j] = closers.isEmpty() ? tokens.size() : closers.peek();
+        }
+
+        for (int j = 1; j + 1 < tokens.size(); j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.kind() != ScriptLexer.Kind.IDENTIFIER || isPunct(j - 1, '.')
+                    || tokens.get(j - 1).is("let") || tokens.get(j - 1).is("const")) {
+                continue;
+            }
+            if (operator(j) != 0) {
+                assignments.computeIfAbsent(t.text(), k -> new ArrayList<>()).add(j);
+            }
+        }
+    }
+
+    private char operator(int j) {
+        if (isPunct(j + 1, '=') && !isPunct(j + 2, '=')) {
+            return '=';
+        }
+        if (adjacent(j + 1) && (isPunct(j + 1, '+') && isPunct(j + 2, '+') || isPunct(j + 1, '-') && isPunct(j + 2, '-')
+                || isPunct(j - 1, '+') && isPunct(j - 2, '+') && adjacent(j - 2)
+                || isPunct(j - 1, '-') && isPunct(j - 2, '-') && adjacent(j - 2))) {
+            return INCREMENT;
+        }
+        if (isArithmetic(j + 1) && isPunct(j + 2, '=') && adjacent(j + 1)) {
+            return tokens.get(j + 1).text().charAt(0);
+        }
+        return 0;
+    }
+
+    private boolean adjacent(int j) {
+        return j >= 0 && j + 1 < tokens.size() && tokens.get(j).end() == tokens.get(j + 1).start();
+    }
+
+    private String widen(String name, String type, int from) {
+        List<Integer> sites = assignments.getOrDefault(name, List.of());
+        int first = Collections.binarySearch(sites, from);
+        int end = visibleUntil(from);
+        for (int k = first < 0 ? -first - 1 : first; k < sites.size() && sites.get(k) < end; k++) {
+            int site = sites.get(k);
+            char op = operator(site);
+            if (op == INCREMENT) {
+                if (type != null && !isNumeric(type)) {
+                    return null;
+                }
+                continue;
+            }
+            int rhs = op == '=' ? site + 2 : site + 3;
+            String assigned = expressionType(rhs, expressionEnd(rhs));
+            if (op == '=' || op == '+' && (type == null || type.equals("String"))) {
+                if (assigned == null || "String".equals(type)) {
+                    continue;
+                }
+                type = type == null ? assigned : join(type, assigned);
+            } else if (type != null) {
+                if (!isNumeric(type) || "String".equals(assigned)) {
+                    return null;
+                }
+                type = op == '/' || assigned == null || !isNumeric(assigned) ? "double" : join(type, assigned);
+            }
+            if (type == null) {
+                return null;
+            }
+        }
+        return type;
+    }
+
+    private int visibleUntil(int j) {
+        if (j >= tokens.size()) {
+            return j;
+        }
+        int end = scopeEnd[j];
+        if (!isPunct(end, ')')) {
+            return end;
+        }
+        int open = j;
+        for (int depth = 0; open >= 0; open--) {
+            if (isPunct(open, ')')) {
+                depth++;
+            } else if (isPunct(open, '(') && depth-- == 0) {
+                break;
+            }
+        }
+        if (open <= 0 || !tokens.get(open - 1).is("for") || end + 1 >= tokens.size()) {
+            return end;
+        }
+        return isPunct(end + 1, '{') && end + 2 < tokens.size() ? scopeEnd[end + 2] : expressionEnd(end + 1);
+    }
+
+    private static String join(String a, String b) {
+        if (a.equals(b)) {
+            return a;
+        }
+        if (isNumeric(a) && isNumeric(b)) {
+            return a.equals("double") || b.equals("double") ? "double" : "long";
+        }
+        return null;
+    }
+
+    private boolean inferable(int start) {
+        if (start >= tokens.size()) {
+            return false;
+        }
+        ScriptLexer.Token first = tokens.get(start);
+        if (first.isPunct('[') || first.is("null") || first.is("function") || first.is("undefined")) {
+            return false;
+        }
+        int end = expressionEnd(start);
+        for (int j = start; j < end; j++) {
+            if (tokens.get(j).is("=>") || (isPunct(j, '-') && isPunct(j + 1, '>'))) {
+                return false;
+            }
+        }
+        return end > start;
+    }
+
+    private int expressionEnd(int start) {
+        int depth = 0;
+        for (int j = start; j < tokens.size(); j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.isPunct('(') || t.isPunct('[') || t.isPunct('{')) {
+                depth++;
+            } else if (t.isPunct(')') || t.isPunct(']') || t.isPunct('}')) {
+                if (--depth < 0) {
+                    return j;
+                }
+            } else if (depth == 0 && (t.isPunct(';') || t.isPunct(','))) {
+                return j;
+            }
+        }
+        return tokens.size();
+    }
+
+    private String expressionType(int start, int end) {
+        if (start >= end) {
+            return UNKNOWN;
+        }
+        if (tokens.get(start).is("new")) {
+            return UNKNOWN;
+        }
+        int depth = 0;
+        int question = -1;
+        boolean plus = false;
+        boolean comparison = isPunct(start, '!') && !isPunct(start + 1, '=');
+        for (int j = start; j < end; j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.isPunct('(') || t.isPunct('[')) {
+                depth++;
+            } else if (t.isPunct(')') || t.isPunct(']')) {
+                depth--;
+            } else if (depth == 0) {
+                if (t.isPunct('?') && question < 0) {
+                    question = j;
+                } else if (t.isPunct('+')) {
+                    plus = true;
+                } else if ((t.isPunct('=') || t.isPunct('!')) && isPunct(j + 1, '=')
+                        || t.isPunct('<') || t.isPunct('>') || t.is("instanceof")
+                        || (t.isPunct('&') && isPunct(j + 1, '&')) || (t.isPunct('|') && isPunct(j + 1, '|'))) {
+                    comparison = true;
+                }
+            }
+        }
+        if (question >= 0) {
+            int colon = question + 1;
+            for (int d = 0; colon < end && !(d == 0 && isPunct(colon, ':')); colon++) {
+                d += isPunct(colon, '(') || isPunct(colon, '[') ? 1 : isPunct(colon, ')') || isPunct(colon, ']') ? -1 : 0;
+            }
+            String whenTrue = expressionType(question + 1, colon);
+            String whenFalse = expressionType(colon + 1, end);
+            return whenTrue == null || whenFalse == null ? UNKNOWN : join(whenTrue, whenFalse);
+        }
+        if (comparison) {
+            return "boolean";
+        }
+
+        String result = null;
+        int operator = -1;
+        int j = start;
+        while (j < end) {
+            if (isPunct(j, '-') || isPunct(j, '+')) {
+                j++;
+                continue;
+            }
+            int operandEnd = operandEnd(j, end);
+            String operand = operandType(j, operandEnd);
+            if (operand == null) {
+                return UNKNOWN;
+            }
+            if (operand.equals("String") && plus) {
+                return "String";
+            }
+            if (result != null && isPunct(operator, '/') && isIntegral(result) && isIntegral(operand)) {
+                divisions.add(operator + 1);
+                result = "double";
+            } else {
+                result = result == null ? operand : combine(result, operand);
+            }
+            if (result == null) {
+                return UNKNOWN;
+            }
+            j = operandEnd;
+            if (j < end && !isArithmetic(j)) {
+                return UNKNOWN;
+            }
+            operator = j++;
+        }
+        return result;
+    }
+
+    private static String combine(String a, String b) {
+        if (a.equals(b) && !a.equals("boolean")) {
+            return a;
+        }
+        if (isNumeric(a) && isNumeric(b)) {
+            if (a.equals("double") || b.equals("double")) {
+                return "double";
+            }
+            return a.equals("long") || b.equals("long") ? "long" : "int";
+        }
+        return null;
+    }
+
+    private int operandEnd(int start, int end) {
+        int depth = 0;
+        for (int j = start; j < end; j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.isPunct('(') || t.isPunct('[')) {
+                depth++;
+            } else if (t.isPunct(')') || t.isPunct(']')) {
+                depth--;
+            } else if (depth == 0 && j > start && isArithmetic(j)) {
+                return j;
+            }
+        }
+        return end;
+    }
+
+    private boolean isArithmetic(int j) {
+        return isPunct(j, '+') || isPunct(j, '-') || isPunct(j, '*') || isPunct(j, '/') || isPunct(j, '%');
+    }
+
+    private String operandType(int start, int end) {
+        ScriptLexer.Token first = tokens.get(start);
+        if (end - start == 1) {
+            switch (first.kind()) {
+                case NUMBER -> {
+                    return numberType(first.text());
+                }
+                case STRING -> {
+                    return first.text().charAt(0) == '"' ? "String" : UNKNOWN;
+                }
+                case TEMPLATE -> {
+                    return "String";
+                }
+                case IDENTIFIER -> {
+                    if (first.is("true") || first.is("false")) {
+                        return "boolean";
+                    }
+                    String known = symbols.get(first.text());
+                    return known != null ? known : declaredType(start);
+                }
+                default -> {
+                    return UNKNOWN;
+                }
+            }
+        }
+        if (first.isPunct('(') && isPunct(end - 1, ')')) {
+            return expressionType(start + 1, end - 1);
+        }
+        if (first.kind() == ScriptLexer.Kind.STRING && first.text().charAt(0) == '"' && isPunct(start + 1, '.')) {
+            String call = lastCall(start, end);
+            return call == null ? UNKNOWN : CALL_TYPES.get(call);
+        }
+        if (first.kind() != ScriptLexer.Kind.IDENTIFIER) {
+            return UNKNOWN;
+        }
+        if (end - start >= 3 && isPunct(start + 1, '[') && isPunct(end - 1, ']')) {
+            String array = symbols.get(first.text());
+            if (array != null && array.endsWith("[]")) {
+                return array.substring(0, array.length() - 2);
+            }
+            return array != null && array.startsWith("List<String>") ? "String" : UNKNOWN;
+        }
+        String call = lastCall(start, end);
+        return call == null ? UNKNOWN : CALL_TYPES.get(call);
+    }
+
+    private String declaredType(int use) {
+        String name = tokens.get(use).text();
+        if (!resolving.add(name)) {
+            return UNKNOWN;
+        }
+        try {
+            for (int d = use - 1; d > 0; d--) {
+                if (tokens.get(d).is(name) && (tokens.get(d - 1).is("let") || tokens.get(d - 1).is("const"))
+                        && use < visibleUntil(d)) {
+                    if (!isPunct(d + 1, '=')) {
+                        return UNKNOWN;
+                    }
+                    int initEnd = expressionEnd(d + 2);
+                    return widen(name, expressionType(d + 2, initEnd), initEnd);
+                }
+            }
+            return UNKNOWN;
+        } finally {
+            resolving.remove(name);
+        }
+    }
+
+    private String lastCall(int start, int end) {
+        int depth = 0;
+        String last = null;
+        for (int j = start; j < end; j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.isPunct('(') || t.isPunct('[')) {
+                depth++;
+            } else if (t.isPunct(')') || t.isPunct(']')) {
+                depth--;
+            } else if (depth == 0 && t.kind() == ScriptLexer.Kind.IDENTIFIER && (j == start || isPunct(j - 1, '.'))) {
+                last = t.text();
+            }
+        }
+        ScriptLexer.Token tail = tokens.get(end - 1);
+        if (tail.kind() == ScriptLexer.Kind.IDENTIFIER && !tail.is("length") && end - start > 1) {
+            return null;
+        }
+        return last;
+    }
+
+    private static String numberType(String literal) {
+        String text = literal.toLowerCase();
+        if (text.startsWith("0x")) {
+            return "int";
+        }
+        if (text.endsWith("l")) {
+            return "long";
+        }
+        if (text.contains(".") || text.contains("e") || text.endsWith("d") || text.endsWith("f")) {
+            return "double";
+        }
+        try {
+            Integer.parseInt(text);
+            return "int";
+        } catch (NumberFormatException e) {
+            return "long";
+        }
+    }
+
+    private static boolean isIntegral(String type) {
+        return type.equals("int") || type.equals("long");
+    }
+
+    private static boolean isNumeric(String type) {
+        return type.equals("int") || type.equals("long") || type.equals("double");
+    }
+
+    private boolean isPunct(int i, char c) {
+        return i >= 0 && i < tokens.size() && tokens.get(i).isPunct(c);
+    }
+}
@@ -1,352 +1,724 @@
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
 
 public class Main {
-    private static long startTime;
 
-    public static String pluginName = null;
-    private static String pluginVersion = null;
-    private static String pluginPackage = null;
-
-    private static boolean usesData = false;
-    private static boolean usesDescription = false;
-
-    private static boolean usesFetch = false;
-    private static boolean usesJsonParse = false;
-
-    private static String dataFileName = "data.json";
-
-    public static StringBuilder pluginCommands = new StringBuilder();
-    private static Set<String> processedCommands = new HashSet<>();
+    private static final Map<Path, BuildCache> caches = new ConcurrentHashMap<>();
+
+    private static final String USAGE = """
+            Uso: java -jar compilador.jar [opciones] <archivo.js>
+                   java -jar compilador.jar [opciones] --batch <directorio|archivo.js>...
+                   java -jar compilador.jar --daemon [puerto]
+                   java -jar compilador.jar --client [puerto] [opciones] <archivo.js>
+                   (el daemon guarda su token en ~/.cache/compilador/daemon-<puerto>.token, legible solo por su usuario)
+            Opciones:
+              --classpath <jars>                      classpath de la API del servidor
+              --jar-mode store|deflate|parallel       compresión del .jar
+              --output <dir>                          directorio de salida (por defecto: output)
+              --cache <dir> | --no-cache              caché incremental (por defecto: <output>/.cache)
+              --no-progress                           no muestra la barra de progreso
+              -q, --quiet                             solo muestra errores
+              --metrics <archivo.json>                guarda tiempos, memoria y fragmentos de cada fase
+              --rules <archivo>                       reglas de traducción adicionales (<fase> <literal|-> <regex> => <reemplazo>)
+              --data-store json|journal               guarda los datos como un único JSON o como un diario de cambios
+              --data-flush <segundos>                 guarda los datos en segundo plano cada n segundos (0: en cada cambio)
+              --fetch-timeout <segundos>              tiempo máximo de conexión y respuesta de fetch (por defecto: 10)
+              --fetch-cache <segundos>                guarda las respuestas de fetch durante n segundos (por defecto: sin caché)
+              --fetch-cache-size <n>                  número máximo de URLs en la caché de fetch (por defecto: 256)
+              --stats                                 mide la latencia de comandos, eventos, fetch y datos (comando /<plugin>stats)
+              --stats-log <segundos>                  con --stats, resume las latencias en el log cada n segundos (por defecto: 300, 0: nunca)
+              --jfr                                   emite eventos de Java Flight Recorder para comandos, eventos, datos y fetch
+              --watch                                 recompila cada vez que cambia el script
+              --batch                                 compila varios scripts en paralelo, cada uno en <output>/<nombre>
+              --jobs <n>                              hilos para --batch (por defecto: núcleos disponibles)""";
+
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    private static final Pattern SIMPLE_OPERAND = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*(\\(\\))?");
+    private static final Pattern OCTAL_ESCAPE_SUFFIX = Pattern.compile("(?<!\\\\)(\\\\\\\\)*\\\\[0-7]{1,2}$");
+    private static final Set<String> MESSAGE_METHODS = Set.of("sendMessage", "broadcastMessage", "info", "warning",
+            "severe", "kickPlayer", "setJoinMessage", "setQuitMessage", "setDeathMessage");
+    private static final Pattern JAVA_BLOCK_PATTERN = Pattern.compile("\\$\\^(.*?)\\^\\$", Pattern.DOTALL);
+    private static final Pattern LINE_START = Pattern.compile("(?m)^");
+    private static final Pattern DATA_USAGE_PATTERN = Pattern.compile("\\bdata\\.(set|get)\\w*\\(");
+    private static final Pattern DATA_FILE_PATTERN = Pattern.compile("data\\.set\\(\\\"nombre\\\",\\s*\\\"([^\"]+)\\\"\\);");
+    private static final Pattern PROPERTY_ACCESS_PATTERN = Pattern.compile("([a-zA-Z0-9_]+)\\.([a-zA-Z0-9_]+)");
+    private static final Pattern DATA_SET_ARRAY_PATTERN = Pattern.compile("data\\.set\\(\\\"([^\\\"]+)\\\"\\s*,\\s*\\[([^\\]]+)\\]\\)");
+    private static final Pattern INTEGER_LITERAL = Pattern.compile("-?\\d+");
+    private static final Pattern DECIMAL_LITERAL = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final Pattern CONSOLE_LOG_PATTERN = Pattern.compile("console\\.log\\(([^)]+)\\);?");
+    private static final Pattern CONSOLE_ERROR_PATTERN = Pattern.compile("console\\.error\\(([^)]+)\\);?");
+    private static final Pattern CONSOLE_WARN_PATTERN = Pattern.compile("console\\.warn\\(([^)]+)\\);?");
+    private static final Set<String> KNOWN_METHODS = Set.of("toLowerCase", "toUpperCase", "split", "equals",
+            "substring", "toString", "isEmpty", "size",
+            "length", "add", "push", "replaceAll", "join");
+    private static final Map<String, String> EVENT_CLASSES = Map.of(
+            "playerJoin", "PlayerJoinEvent",
+            "playerQuit", "PlayerQuitEvent",
+            "blockBreak", "BlockBreakEvent",
+            "blockPlace", "BlockPlaceEvent",
+            "entityDamage", "EntityDamageEvent");
+    private static final Set<String> CALL_KEYWORDS = Set.of("if", "for", "while", "switch", "catch", "synchronized",
+            "try", "return", "throw", "this", "super", "new", "assert", "yield");
+    private static final Set<String> EXECUTOR_IMPORTS = Set.of("org.bukkit.command.Command",
+            "org.bukkit.command.CommandExecutor", "org.bukkit.command.CommandSender");
 
-    private static Set<String> knownListVars = new HashSet<>();
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            CompilerDaemon.serve(args.length > 1 ? Integer.parseInt(args[1]) : CompilerDaemon.DEFAULT_PORT);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--client")) {
+            int first = 1;
+            int port = CompilerDaemon.DEFAULT_PORT;
+            if (args.length > 1 && args[1].matches("\\d+")) {
+                port = Integer.parseInt(args[1]);
+                first = 2;
+            }
+            System.exit(CompilerDaemon.submit(port, Arrays.copyOfRange(args, first, args.length)));
+        }
 
-    private static final Set<String> knownJsonObjects = new HashSet<>();
+        if (Arrays.asList(args).contains("--watch")) {
+            CompilerDaemon.watch(args);
+        } else {
+            System.exit(runBuild(args) ? 0 : 1);
+        }
+    }
 
-    private static final Pattern DESCRIPTION_PATTERN = Pattern.compile(
-            "description\\(\\\"([^\\\"]+)\\\"\\);?"
-    );
+    public static boolean runBuild(String[] args) {
+        return runBuild(Paths.get(""), args, System.out, System.err);
+    }
 
-    private static final Pattern JAVA_BLOCK_PATTERN = Pattern.compile("\\$\\^(.*?)\\^\\$", Pattern.DOTALL);
+    public static boolean runBuild(Path workingDir, String[] args, PrintStream out, PrintStream err) {
+        CompilationContext ctx = new CompilationContext(workingDir, out, err);
+        List<String> inputs;
+        try {
+            inputs = parseArgs(ctx, args);
+        } catch (IllegalArgumentException e) {
+            err.println("Error: " + e.getMessage());
+            return false;
+        }
+        if (inputs.isEmpty()) {
+            out.println(USAGE);
+            return false;
+        }
+        if (ctx.batch) {
+            return BatchCompiler.run(ctx, inputs);
+        }
+        if (inputs.size() > 1) {
+            err.println("Error: usa --batch para compilar varios scripts a la vez.");
+            return false;
+        }
+        ctx.inputPath = workingDir.resolve(inputs.get(0));
+        boolean success = build(ctx);
+        writeMetrics(ctx, List.of(ctx.metrics.toJson(ctx, success)), false);
+        return success;
+    }
 
-    public static void main(String[] args) {
-        if (args.length < 1) {
-            System.out.println("Uso: java -jar compilador.jar <archivo.js>");
-            return;
+    static List<String> parseArgs(CompilationContext ctx, String[] args) {
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            boolean hasValue = i + 1 < args.length;
+            if ((args[i].equals("--classpath") || args[i].equals("-cp")) && hasValue) {
+                List<String> entries = new ArrayList<>();
+                for (String entry : args[++i].split(File.pathSeparator)) {
+                    entries.add(ctx.baseDir.resolve(entry).toString());
+                }
+                ctx.classpath = entries;
+            } else if (args[i].equals("--jar-mode") && hasValue) {
+                ctx.jarMode = JarPackager.Mode.parse(args[++i]);
+            } else if (args[i].equals("--output") && hasValue) {
+                ctx.outputDir = ctx.baseDir.resolve(args[++i]);
+            } else if (args[i].equals("--cache") && hasValue) {
+                ctx.cacheDir = ctx.baseDir.resolve(args[++i]);
+                ctx.customCache = true;
+            } else if (args[i].equals("--no-cache")) {
+                ctx.cacheDir = null;
+                ctx.customCache = true;
+            } else if (args[i].equals("--no-progress")) {
+                ctx.showProgress = false;
+            } else if (args[i].equals("--quiet") || args[i].equals("-q")) {
+                ctx.quiet = true;
+                ctx.showProgress = false;
+            } else if (args[i].equals("--metrics") && hasValue) {
+                ctx.metricsFile = ctx.baseDir.resolve(args[++i]);
+            } else if (args[i].equals("--rules") && hasValue) {
+                ctx.rulesFile = ctx.baseDir.resolve(args[++i]);
+            } else if (args[i].equals("--watch")) {
+                ctx.watch = true;
+            } else if (args[i].equals("--batch")) {
+                ctx.batch = true;
+            } else if (args[i].equals("--data-flush") && hasValue) {
+                ctx.dataFlushSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--data-store") && hasValue) {
+                String store = args[++i];
+                if (!store.equals("json") && !store.equals("journal")) {
+                    throw new IllegalArgumentException("almacenamiento de datos desconocido: " + store);
+                }
+                ctx.dataJournal = store.equals("journal");
+            } else if (args[i].equals("--fetch-timeout") && hasValue) {
+                ctx.fetchTimeoutSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--fetch-cache") && hasValue) {
+                ctx.fetchCacheSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--fetch-cache-size") && hasValue) {
+                ctx.fetchCacheSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--stats")) {
+                ctx.stats = true;
+            } else if (args[i].equals("--stats-log") && hasValue) {
+                ctx.statsLogSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--jfr")) {
+                ctx.jfr = true;
+            } else if (args[i].equals("--jobs") && hasValue) {
+                ctx.jobs = Integer.parseInt(args[++i]);
+            } else if (args[i].startsWith("-")) {
+                throw new IllegalArgumentException("opción desconocida " + args[i]);
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+        if (!ctx.customCache) {
+            ctx.cacheDir = ctx.outputDir.resolve(".cache");
         }
-        String inputFile = args[0];
+        return inputs;
+    }
+
+    static boolean build(CompilationContext ctx) {
         try {
-            startTime = System.currentTimeMillis();
+            ctx.buildCache = ctx.cacheDir == null
+                    ? BuildCache.disabled()
+                    : caches.computeIfAbsent(ctx.cacheDir.toAbsolutePath().normalize(), BuildCache::open).session();
+
+            if (ctx.rulesFile != null) {
+                ctx.rules = TranslationRules.load(ctx.rulesFile);
+            }
 
-            String jsCode = Files.readString(Path.of(inputFile));
+            ctx.metrics.begin("read");
+            String jsCode = Files.readString(ctx.inputPath);
+            ctx.metrics.end(1);
 
-            processPluginInfo(jsCode);
+            ctx.metrics.begin("parse");
+            List<ScriptModules.Module> modules = ScriptModules.load(ctx.inputPath, jsCode);
+            ScriptTree tree = modules.size() == 1 ? modules.get(0).tree() : ScriptModules.merge(modules);
+            ctx.moduleCount = modules.size();
+            ctx.commandCount = tree.commands().size();
+            ctx.eventCount = tree.events().size();
+            ctx.metrics.end(ctx.commandCount + ctx.eventCount);
 
-            processCommands(jsCode);
+            ctx.metrics.begin("translate");
+            processPluginInfo(ctx, ScriptModules.featureSource(modules), tree.plugin());
 
-            jsCode = translateJavaScriptToJava(jsCode);
+            processCommands(ctx, tree);
 
-            updateProgress("Convirtiendo clases.");
-            generatePluginYml();
+            ScriptTree translated = translateBlocks(ctx, tree);
+            ctx.metrics.end(ctx.commandCount + ctx.eventCount);
 
-            updateProgress("Convirtiendo clases..");
-            generateCommandClasses();
+            ctx.metrics.begin("generate");
+            updateProgress(ctx, "Convirtiendo clases.");
+            generatePluginYml(ctx);
 
-            updateProgress("Convirtiendo clases...");
-            generateMainClass(jsCode);
+            updateProgress(ctx, "Convirtiendo clases..");
+            generateCommandClasses(ctx, translated);
 
-            updateProgress("Compilando clases.");
-            compileJavaFiles();
+            updateProgress(ctx, "Convirtiendo clases...");
+            generateMainClass(ctx, translated);
+            ctx.metrics.end(ctx.javaSources.size() + 1);
 
-            updateProgress("Compilando clases..");
+            ctx.metrics.begin("compile");
+            updateProgress(ctx, "Compilando clases.");
+            if (!compileJavaFiles(ctx)) {
+                ctx.err.println("\nLa compilación falló; no se generó el .jar.");
+                return false;
+            }
 
-            deleteUnwantedJavaFiles();
+            updateProgress(ctx, "Compilando clases..");
+            ctx.metrics.end(ctx.compiledClasses.size());
 
-            updateProgress("Generando .jar");
-            createJar(pluginName + ".jar");
+            ctx.metrics.begin("package");
+            updateProgress(ctx, "Generando .jar");
+            if (!createJar(ctx, ctx.pluginName + ".jar")) {
+                return false;
+            }
+            ctx.metrics.end(ctx.compiledClasses.size() + 2);
 
-            showElapsedTime();
+            if (!ctx.quiet) {
+                if (ctx.buildCache.enabled()) {
+                    ctx.out.println("Caché: " + ctx.buildCache.hits() + " fragmentos reutilizados, "
+                            + ctx.buildCache.misses() + " regenerados.");
+                }
+                showElapsedTime(ctx);
+            }
+            return true;
+
+        } catch (NoSuchFileException e) {
+            ctx.err.println("Error: no existe el archivo " + e.getMessage());
+            return false;
+        } catch (IOException | RuntimeException e) {
+            ctx.err.println("Error: " + e.getMessage());
+            return false;
+        }
+    }
 
+    static void writeMetrics(CompilationContext options, List<String> reports, boolean asArray) {
+        if (options.metricsFile == null) {
+            return;
+        }
+        try {
+            BuildMetrics.write(options.metricsFile, reports, asArray);
         } catch (IOException e) {
-            System.err.println("Error: " + e.getMessage());
+            options.err.println("No se pudieron escribir las métricas en " + options.metricsFile + ": " + e.getMessage());
         }
     }
 
-    private static void processPluginInfo(String jsCode) {
-        Pattern dataUsagePattern = Pattern.compile("data\\.(set|get)\\(");
-        Matcher dataUsageMatcher = dataUsagePattern.matcher(jsCode);
-        usesData = dataUsageMatcher.find();
+    static void processPluginInfo(CompilationContext ctx, String jsCode, ScriptTree.PluginInfo info) {
+        ctx.usesData = jsCode.contains("data.") && DATA_USAGE_PATTERN.matcher(jsCode).find();
 
-        if (usesData) {
-            Pattern dataPattern = Pattern.compile("data\\.set\\(\\\"nombre\\\",\\s*\\\"([^\"]+)\\\"\\);");
-            Matcher dataMatcher = dataPattern.matcher(jsCode);
+        if (ctx.usesData) {
+            Matcher dataMatcher = DATA_FILE_PATTERN.matcher(jsCode);
             if (dataMatcher.find()) {
-                dataFileName = dataMatcher.group(1);
+                ctx.dataFileName = dataMatcher.group(1);
             }
         }
 
-        Pattern pattern = Pattern.compile(
-                "plugin\\(\\(\\)\\s*=>\\s*\\{\\s*name\\(\\\"([^\"]+)\\\"\\);" +
-                        "\\s*version\\(\\\"([^\"]+)\\\"\\);" +
-                        "\\s*package\\(\\\"([^\"]+)\\\"\\);"
-        );
-        Matcher matcher = pattern.matcher(jsCode);
-
-        if (matcher.find()) {
-            pluginName    = matcher.group(1);
-            pluginVersion = matcher.group(2);
-            pluginPackage = matcher.group(3);
-        } else {
-            pluginName    = "MyPlugin";
-            pluginVersion = "1.0";
-            pluginPackage = "me.example.myplugin";
-        }
+        ctx.pluginName    = info != null && info.name() != null    ? info.name()    : "MyPlugin";
+        ctx.pluginVersion = info != null && info.version() != null ? info.version() : "1.0";
+        ctx.pluginPackage = info != null && info.pkg() != null     ? info.pkg()     : "me.example.myplugin";
     }
 
-    private static void processCommands(String jsCode) {
-        Pattern pattern = Pattern.compile(
-                "command\\(\\s*\"([^\"]+)\"\\s*,\\s*\\(\\s*([a-zA-Z_][a-zA-Z0-9_]*)\\s*\\)\\s*=>\\s*\\{(.*?)\\}\\s*\\)",
-                Pattern.DOTALL
-        );
-        Matcher matcher = pattern.matcher(jsCode);
-
-        if (!matcher.find()) {
-            System.out.println("Contenido del archivo JS:\n" + jsCode);
+    private static void processCommands(CompilationContext ctx, ScriptTree tree) {
+        if (tree.commands().isEmpty()) {
             throw new RuntimeException("No se encontraron comandos en el archivo JS.");
         }
 
-        do {
-            String commandName = matcher.group(1);
-            String senderParam = matcher.group(2);
-            String commandBody = matcher.group(3);
-
-            Matcher descM = DESCRIPTION_PATTERN.matcher(commandBody);
-            String commandDescription = "A test command.";
-            if (descM.find()) {
-                commandDescription = descM.group(1);
-                commandBody = descM.replaceFirst("");
-            }
-
-            generateJavaCommand(commandName, commandDescription, commandBody);
+        for (String yaml : mapBlocks(ctx, tree.commands(), cmd -> commandYaml(cmd.name(), cmd.description()))) {
+            ctx.pluginCommands.append(yaml).append("\n");
+        }
+        if (ctx.stats) {
+            String name = statsCommandName(ctx);
+            ctx.pluginCommands.append("""
+                %s:
+                    description: Latencias de comandos, eventos, fetch y datos.
+                    usage: /%s [reset]
+                    permission: %s
+                """.formatted(name, name, name.substring(0, name.length() - "stats".length()) + ".stats")).append("\n");
+        }
+    }
 
-        } while (matcher.find());
+    private static String statsCommandName(CompilationContext ctx) {
+        return ctx.pluginName.toLowerCase().replaceAll("[^a-z0-9_]", "") + "stats";
     }
 
-    public static void generateJavaCommand(String commandName, String commandDescription, String commandBody) {
-        String javaCode = """
-            package %s;
+    private static ScriptTree translateBlocks(CompilationContext ctx, ScriptTree tree) {
+        tree.commands().forEach(cmd -> detectFeatures(ctx, cmd.body()));
+        tree.events().forEach(evt -> detectFeatures(ctx, evt.body()));
 
-            import org.bukkit.command.Command;
-            import org.bukkit.command.CommandExecutor;
-            import org.bukkit.command.CommandSender;
+        List<ScriptTree.CommandBlock> commands = mapBlocks(ctx, tree.commands(), cmd -> {
+            String key = BuildCache.key("command", cmd.name(), cmd.body(), ctx.rules.fingerprint());
+            return cmd.withBody(ctx.buildCache.text(key, () -> translateJavaScriptToJava(cmd.body(), ctx.rules, cmd.line())));
+        });
 
-            public class %s implements CommandExecutor {
-                @Override
-                public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
-                    %s
-                    return true;
-                }
-            }
-            """.formatted(pluginPackage, capitalize(commandName), commandBody.trim());
+        List<ScriptTree.EventBlock> events = mapBlocks(ctx, tree.events(), evt -> {
+            String key = BuildCache.key("event", evt.name(), evt.param(), evt.body(), ctx.rules.fingerprint());
+            return evt.withBody(ctx.buildCache.text(key, () -> translateJavaScriptToJava(evt.body(), ctx.rules, evt.line())));
+        });
 
-        Path javaFile = Paths.get("output", pluginPackage.replace(".", "/"), capitalize(commandName) + ".java");
-        try {
-            Files.createDirectories(javaFile.getParent());
-            Files.writeString(javaFile, javaCode, StandardOpenOption.CREATE);
-        } catch (IOException e) {
-            System.err.println("Error guardando la clase Java: " + e.getMessage());
+        return new ScriptTree(tree.plugin(), commands, events, tree.imports());
+    }
+
+    private static <T, R> List<R> mapBlocks(CompilationContext ctx, List<T> blocks, Function<T, R> task) {
+        if (blocks.size() < PARALLEL_THRESHOLD || ForkJoinTask.inForkJoinPool()) {
+            return blocks.stream().map(task).toList();
         }
+        return blocks.parallelStream().map(ctx.metrics.tracked(task)).toList();
+    }
 
-        String commandDescriptionYaml = """
+    private static String commandYaml(String commandName, String commandDescription) {
+        return """
             %s:
                 description: %s
                 usage: /%s
             """.formatted(commandName, commandDescription, commandName);
-
-        pluginCommands.append(commandDescriptionYaml).append("\n");
     }
 
-    private static String translateJavaScriptToJava(String jsCode) {
-
-        if (jsCode.contains("fetch(")) {
-            usesFetch = true;
+    private static void detectFeatures(CompilationContext ctx, String jsCode) {
+        if (jsCode.contains("fetch(") || jsCode.contains("fetchAsync(")) {
+            ctx.usesFetch = true;
         }
 
         if (jsCode.contains("JSON.parse(")) {
-            usesJsonParse = true;
+            ctx.usesJsonParse = true;
         }
 
-        jsCode = jsCode.replaceAll("\\bconsole\\.log\\((.+?)\\)",   "getLogger().info($1)");
-        jsCode = jsCode.replaceAll("\\bconsole\\.error\\((.+?)\\)", "getLogger().severe($1)");
-        jsCode = jsCode.replaceAll("\\bconsole\\.warn\\((.+?)\\)",  "getLogger().warning($1)");
-
         if (jsCode.contains("description(")) {
-            usesDescription = true;
-        }
-
-        Pattern interpolationPattern = Pattern.compile("`([^`]*)\\$\\{(.*?)\\}([^`]*)`");
-        Matcher interpolationMatcher = interpolationPattern.matcher(jsCode);
-        StringBuffer interpolatedResult = new StringBuffer();
-        while (interpolationMatcher.find()) {
-            String before = interpolationMatcher.group(1);
-            String expr   = interpolationMatcher.group(2);
-            String after  = interpolationMatcher.group(3);
-            String replacement = "\"" + before + "\" + (" + expr + ") + \"" + after + "\"";
-            interpolationMatcher.appendReplacement(interpolatedResult, Matcher.quoteReplacement(replacement));
-        }
-        interpolationMatcher.appendTail(interpolatedResult);
-        jsCode = interpolatedResult.toString();
-
-        Pattern sliceJoin = Pattern.compile("let\\s+([a-zA-Z0-9_]+)\\s*=\\s*args\\.slice\\((\\d+)\\)\\.join\\(\"([^\"]*)\"\\);");
-        Matcher sliceJoinM = sliceJoin.matcher(jsCode);
-        StringBuffer sbSliceJoin = new StringBuffer();
-        while (sliceJoinM.find()) {
-            String varName   = sliceJoinM.group(1);
-            String fromIndex = sliceJoinM.group(2);
-            String sep       = sliceJoinM.group(3);
-
-            String replacement = "String " + varName
-                    + " = String.join(\"" + sep + "\", java.util.Arrays.copyOfRange(args, "
-                    + fromIndex + ", args.length));";
-            sliceJoinM.appendReplacement(sbSliceJoin, replacement);
-        }
-        sliceJoinM.appendTail(sbSliceJoin);
-        jsCode = sbSliceJoin.toString();
-
-        Pattern dataGetArrayPattern = Pattern.compile("let\\s+([a-zA-Z0-9_]+)\\s*=\\s*data\\.getArray\\(");
-        Matcher dgaMatcher = dataGetArrayPattern.matcher(jsCode);
-        StringBuffer sbDga = new StringBuffer();
-        while (dgaMatcher.find()) {
-            String varName = dgaMatcher.group(1);
-            knownListVars.add(varName);
-            String replacement = "List<String> " + varName + " = data.getArray(";
-            dgaMatcher.appendReplacement(sbDga, replacement);
-        }
-        dgaMatcher.appendTail(sbDga);
-        jsCode = sbDga.toString();
-
-        Pattern getServerPattern = Pattern.compile("let\\s+([a-zA-Z0-9_]+)\\s*=\\s*sender\\.getServer\\(\\);");
-        Matcher gspMatcher = getServerPattern.matcher(jsCode);
-        StringBuffer sbGs = new StringBuffer();
-        while (gspMatcher.find()) {
-            String varName   = gspMatcher.group(1);
-            String replacement = "Server " + varName + " = sender.getServer();";
-            gspMatcher.appendReplacement(sbGs, replacement);
-        }
-        gspMatcher.appendTail(sbGs);
-        jsCode = sbGs.toString();
-
-        Pattern getPlayerExactPattern = Pattern.compile("let\\s+([a-zA-Z0-9_]+)\\s*=\\s*([a-zA-Z0-9_]+)\\.getPlayerExact\\(");
-        Matcher gpeMatcher = getPlayerExactPattern.matcher(jsCode);
-        StringBuffer sbGpe = new StringBuffer();
-        while (gpeMatcher.find()) {
-            String varName   = gpeMatcher.group(1);
-            String serverVar = gpeMatcher.group(2);
-            String replacement = "Player " + varName + " = " + serverVar + ".getPlayerExact(";
-            gpeMatcher.appendReplacement(sbGpe, replacement);
-        }
-        gpeMatcher.appendTail(sbGpe);
-        jsCode = sbGpe.toString();
-
-        Pattern getPlayerPattern = Pattern.compile("let\\s+([a-zA-Z0-9_]+)\\s*=\\s*([a-zA-Z0-9_]+)\\.getPlayer\\(\\s*\\);");
-        Matcher gpMatcher = getPlayerPattern.matcher(jsCode);
-        StringBuffer sbGp = new StringBuffer();
-        while (gpMatcher.find()) {
-            String varName = gpMatcher.group(1);
-            String eventVar= gpMatcher.group(2);
-            String replacement = "Player " + varName + " = " + eventVar + ".getPlayer();";
-            gpMatcher.appendReplacement(sbGp, replacement);
-        }
-        gpMatcher.appendTail(sbGp);
-        jsCode = sbGp.toString();
-
-        Pattern ifNotVar = Pattern.compile("if \\(!([a-zA-Z0-9_]+)\\)");
-        Matcher matchIfNot = ifNotVar.matcher(jsCode);
-        StringBuffer sbIfNot = new StringBuffer();
-        while (matchIfNot.find()) {
-            String varName = matchIfNot.group(1);
-            String replacement = "if (" + varName + " == null || " + varName + ".isEmpty())";
-            matchIfNot.appendReplacement(sbIfNot, replacement);
-        }
-        matchIfNot.appendTail(sbIfNot);
-        jsCode = sbIfNot.toString();
-
-        Pattern tripleEqualsPattern = Pattern.compile(
-                "([a-zA-Z0-9_]+)\\.toLowerCase\\(\\)\\s*===\\s*([a-zA-Z0-9_]+)\\.toLowerCase\\(\\)"
-        );
-        Matcher equalsMatcher = tripleEqualsPattern.matcher(jsCode);
-        StringBuffer sbEquals = new StringBuffer();
-        while (equalsMatcher.find()) {
-            String leftVar  = equalsMatcher.group(1);
-            String rightVar = equalsMatcher.group(2);
-            String replacement = leftVar + ".toLowerCase().equals(" + rightVar + ".toLowerCase())";
-            equalsMatcher.appendReplacement(sbEquals, replacement);
+            ctx.usesDescription = true;
+        }
+
+        if (jsCode.contains("playerData.")) {
+            ctx.usesPlayerData = true;
         }
-        equalsMatcher.appendTail(sbEquals);
-        jsCode = sbEquals.toString();
+    }
 
-        jsCode = jsCode.replaceAll("\\.push\\(", ".add(");
+    static String translateJavaScriptToJava(String jsCode) {
+        return translateJavaScriptToJava(jsCode, TranslationRules.DEFAULTS, 1);
+    }
+
+    static String translateJavaScriptToJava(String jsCode, TranslationRules rules, int firstLine) {
+        Set<String> knownListVars = new HashSet<>();
+        Set<String> knownJsonObjects = new HashSet<>();
+
+        jsCode = rules.apply(TranslationRules.Phase.SOURCE, jsCode, knownListVars, knownJsonObjects);
+
+        jsCode = lowerSchedulerBlocks(jsCode, firstLine);
+
+        jsCode = translateInterpolation(jsCode);
+
+        jsCode = rules.apply(TranslationRules.Phase.DECLARATIONS, jsCode, knownListVars, knownJsonObjects);
 
         jsCode = transformDataSetArrays(jsCode);
 
-        {
-            Pattern splitPattern = Pattern.compile(
-                    "let\\s+([a-zA-Z0-9_]+)\\s*=\\s*([a-zA-Z0-9_]+)\\.split\\(\\\"([^\\\"]+)\\\"\\)\\s*;"
-            );
-            Matcher splitM = splitPattern.matcher(jsCode);
-            StringBuffer sbSplit = new StringBuffer();
-            while (splitM.find()) {
-                String varName = splitM.group(1);
-                String source  = splitM.group(2);
-                String delim   = splitM.group(3);
+        jsCode = rules.apply(TranslationRules.Phase.LISTS, jsCode, knownListVars, knownJsonObjects);
+
+        jsCode = ListLowering.lower(jsCode, knownListVars);
+
+        jsCode = rules.apply(TranslationRules.Phase.CALLS, jsCode, knownListVars, knownJsonObjects);
+
+        jsCode = translatePropertyAccess(jsCode, knownJsonObjects);
+
+        jsCode = LocalTypes.infer(jsCode);
+
+        jsCode = rules.apply(TranslationRules.Phase.TYPES, jsCode, knownListVars, knownJsonObjects);
+
+        jsCode = rules.apply(TranslationRules.Phase.OUTPUT, jsCode, knownListVars, knownJsonObjects);
+
+        jsCode = foldStringConcatenation(jsCode);
+
+        jsCode = handleInlineJavaBlocks(jsCode);
+
+        return jsCode;
+    }
+
+    private record SchedulerBlock(int header, int close, int last, Set<String> used) {
+    }
+
+    private record Edit(int start, int end, String text) {
+    }
+
+    static String lowerSchedulerBlocks(String jsCode, int firstLine) {
+        if (!jsCode.contains("sync")) {
+            return jsCode;
+        }
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(jsCode);
+        } catch (RuntimeException e) {
+            return jsCode;
+        }
+
+        int[] closing = new int[tokens.size()];
+        Arrays.fill(closing, -1);
+        Deque<Integer> braces = new ArrayDeque<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).isPunct('{')) {
+                braces.push(i);
+            } else if (tokens.get(i).isPunct('}') && !braces.isEmpty()) {
+                closing[braces.pop()] = i;
+            }
+        }
+        Map<String, Integer> declaredAt = new HashMap<>();
+        Set<String> reassigned = reassignedLocals(tokens, declaredAt);
+
+        List<Edit> edits = new ArrayList<>();
+        List<Integer> prefixes = new ArrayList<>();
+        Deque<SchedulerBlock> open = new ArrayDeque<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (!open.isEmpty() && i == open.peek().close()) {
+                SchedulerBlock block = open.pop();
+                ScriptLexer.Token header = tokens.get(block.header());
+                StringBuilder copies = new StringBuilder();
+                for (String name : block.used()) {
+                    copies.append("final var ").append(name).append("$ = ").append(name).append("; ");
+                }
+                String method = header.text().equals("async") ? "runTaskAsynchronously" : "runTask";
+                String prefix = (copies.isEmpty() ? "" : "{ " + copies)
+                        + "getServer().getScheduler()." + method + "(Main.this, () -> {";
+                edits.set(prefixes.remove(prefixes.size() - 1),
+                        new Edit(header.start(), tokens.get(block.header() + 5).end(), prefix));
+                edits.add(new Edit(t.start(), tokens.get(block.last()).end(), "});" + (copies.isEmpty() ? "" : " }")));
+                i = block.last();
+            } else if (isSchedulerHeader(tokens, i)) {
+                int close = closing[i + 5];
+                if (close < 0 || close + 1 >= tokens.size() || !tokens.get(close + 1).isPunct(')')) {
+                    throw new RuntimeException("Bloque " + t.text() + " sin cerrar en la línea "
+                            + (firstLine + ScriptLexer.lineOf(jsCode, t.start()) - 1) + ".");
+                }
+                int last = close + 2 < tokens.size() && tokens.get(close + 2).isPunct(';') ? close + 2 : close + 1;
+                prefixes.add(edits.size());
+                edits.add(null);
+                open.push(new SchedulerBlock(i, close, last, new TreeSet<>()));
+                i += 5;
+            } else if (t.kind() == ScriptLexer.Kind.IDENTIFIER && reassigned.contains(t.text())
+                    && !open.isEmpty() && !tokens.get(i - 1).isPunct('.')) {
+                Iterator<SchedulerBlock> outermost = open.descendingIterator();
+                while (outermost.hasNext()) {
+                    SchedulerBlock block = outermost.next();
+                    if (declaredAt.get(t.text()) < block.header()) {
+                        if (isReassignment(tokens, i)) {
+                            throw new RuntimeException("La variable '" + t.text() + "' se declara fuera del bloque "
+                                    + tokens.get(block.header()).text() + " y no se puede reasignar dentro de él (línea "
+                                    + (firstLine + ScriptLexer.lineOf(jsCode, t.start()) - 1) + "); el bloque solo recibe una copia.");
+                        }
+                        edits.add(new Edit(t.start(), t.end(), t.text() + "$"));
+                        block.used().add(t.text());
+                        break;
+                    }
+                }
+            }
+        }
+        if (edits.isEmpty()) {
+            return jsCode;
+        }
+
+        StringBuilder sb = new StringBuilder(jsCode.length() + 64 * edits.size());
+        int copied = 0;
+        for (Edit edit : edits) {
+            sb.append(jsCode, copied, edit.start()).append(edit.text());
+            copied = edit.end();
+        }
+        return sb.append(jsCode, copied, jsCode.length()).toString();
+    }
+
+    private static boolean isSchedulerHeader(List<ScriptLexer.Token> tokens, int i) {
+        ScriptLexer.Token t = tokens.get(i);
+        return i + 5 < tokens.size() && (t.is("async") || t.is("sync")) && t.kind() == ScriptLexer.Kind.IDENTIFIER
+                && (i == 0 || !tokens.get(i - 1).isPunct('.'))
+                && tokens.get(i + 1).isPunct('(') && tokens.get(i + 2).isPunct('(')
+                && tokens.get(i + 3).isPunct(')') && tokens.get(i + 4).is("=>") && tokens.get(i + 5).isPunct('{');
+    }
+
+    private static Set<String> reassignedLocals(List<ScriptLexer.Token> tokens, Map<String, Integer> declaredAt) {
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            if (tokens.get(i).is("let") && tokens.get(i + 1).kind() == ScriptLexer.Kind.IDENTIFIER) {
+                declaredAt.putIfAbsent(tokens.get(i + 1).text(), i + 1);
+            }
+        }
+        Set<String> reassigned = new HashSet<>();
+        for (int i = 0; i + 2 < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (!declaredAt.containsKey(t.text()) || (i > 0 && (tokens.get(i - 1).is("let") || tokens.get(i - 1).isPunct('.')))) {
+                continue;
+            }
+            if (isReassignment(tokens, i)) {
+                reassigned.add(t.text());
+            }
+        }
+        return reassigned;
+    }
+
+    private static boolean isReassignment(List<ScriptLexer.Token> tokens, int i) {
+        if (i + 2 >= tokens.size()) {
+            return false;
+        }
+        ScriptLexer.Token next = tokens.get(i + 1);
+        ScriptLexer.Token after = tokens.get(i + 2);
+        boolean assign = next.isPunct('=') && !after.isPunct('=');
+        boolean compound = "+-*/%".contains(next.text()) && next.kind() == ScriptLexer.Kind.PUNCT && after.isPunct('=');
+        boolean increment = (next.isPunct('+') && after.isPunct('+')) || (next.isPunct('-') && after.isPunct('-'));
+        boolean prefixed = i > 1 && ((tokens.get(i - 1).isPunct('+') && tokens.get(i - 2).isPunct('+'))
+                || (tokens.get(i - 1).isPunct('-') && tokens.get(i - 2).isPunct('-')));
+        return assign || compound || increment || prefixed;
+    }
+
+    static String translateInterpolation(String jsCode) {
+        if (jsCode.indexOf('`') < 0) {
+            return jsCode;
+        }
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(jsCode);
+        } catch (RuntimeException e) {
+            return jsCode;
+        }
+        StringBuilder sb = new StringBuilder(jsCode.length());
+        int copied = 0;
+        for (ScriptLexer.Token token : tokens) {
+            if (token.kind() == ScriptLexer.Kind.TEMPLATE) {
+                sb.append(jsCode, copied, token.start()).append(templateToJava(token.text()));
+                copied = token.end();
+            }
+        }
+        return sb.append(jsCode, copied, jsCode.length()).toString();
+    }
 
-                String replacement = "String[] " + varName + " = " + source + ".split(\"" + delim + "\");";
-                splitM.appendReplacement(sbSplit, replacement);
+    private static String templateToJava(String template) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int end = template.length() - 1;
+        for (int i = 1; i < end; i++) {
+            char c = template.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char next = template.charAt(++i);
+                if (next == '`' || next == '$' || next == '{') {
+                    literal.append(next);
+                } else {
+                    literal.append('\\').append(next);
+                }
+            } else if (c == '$' && i + 1 < end && template.charAt(i + 1) == '{') {
+                int close = placeholderEnd(template, i + 2);
+                String expr = translateInterpolation(template.substring(i + 2, close).trim());
+                if (!literal.isEmpty()) {
+                    parts.add("\"" + literal + "\"");
+                    literal.setLength(0);
+                }
+                if (!expr.isEmpty()) {
+                    parts.add(SIMPLE_OPERAND.matcher(expr).matches() ? expr : "(" + expr + ")");
+                }
+                i = close;
+            } else if (c == '"') {
+                literal.append("\\\"");
+            } else if (c == '\n') {
+                literal.append("\\n");
+            } else if (c != '\r') {
+                literal.append(c);
             }
-            splitM.appendTail(sbSplit);
-            jsCode = sbSplit.toString();
+        }
+        if (!literal.isEmpty()) {
+            parts.add("\"" + literal + "\"");
         }
 
-        jsCode = transformForLoopListAccess(jsCode);
+        if (parts.isEmpty()) {
+            return "\"\"";
+        }
+        if (!parts.get(0).startsWith("\"") && (parts.size() == 1 || !parts.get(1).startsWith("\""))) {
+            parts.set(0, "String.valueOf(" + parts.get(0) + ")");
+        }
+        return String.join(" + ", parts);
+    }
+
+    private static int placeholderEnd(String template, int from) {
+        int depth = 1;
+        for (int i = from; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '"' || c == '\'' || c == '`') {
+                for (i++; i < template.length() && template.charAt(i) != c; i++) {
+                    if (template.charAt(i) == '\\') {
+                        i++;
+                    }
+                }
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return template.length() - 1;
+    }
 
-        Pattern fetchPattern = Pattern.compile("let\\s+([a-zA-Z0-9_]+)\\s*=\\s*fetch\\(([^)]+)\\);?");
-        Matcher fetchM = fetchPattern.matcher(jsCode);
-        StringBuffer sbFetch = new StringBuffer();
-        while (fetchM.find()) {
-            String varName = fetchM.group(1);
-            String urlExpr = fetchM.group(2).trim();
-            String replacement = "String " + varName + " = fetch(" + urlExpr + ");";
-            fetchM.appendReplacement(sbFetch, replacement);
+    static String foldStringConcatenation(String code) {
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(code);
+        } catch (RuntimeException e) {
+            return code;
+        }
+        StringBuilder sb = new StringBuilder(code.length());
+        int copied = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!isStringLiteral(tokens, i) || (i > 0 && tokens.get(i - 1).isPunct('.'))) {
+                continue;
+            }
+            int last = i;
+            StringBuilder folded = new StringBuilder(tokens.get(i).stringValue());
+            while (last + 2 < tokens.size() && tokens.get(last + 1).isPunct('+') && isStringLiteral(tokens, last + 2)
+                    && !OCTAL_ESCAPE_SUFFIX.matcher(folded).find()
+                    && (last + 3 >= tokens.size() || !(tokens.get(last + 3).isPunct('.') || tokens.get(last + 3).isPunct('[')))) {
+                last += 2;
+                folded.append(tokens.get(last).stringValue());
+            }
+            if (last > i) {
+                sb.append(code, copied, tokens.get(i).start()).append('"').append(folded).append('"');
+                copied = tokens.get(last).end();
+                i = last;
+            }
         }
-        fetchM.appendTail(sbFetch);
-        jsCode = sbFetch.toString();
+        return sb.append(code, copied, code.length()).toString();
+    }
 
-        Pattern jsonParsePattern = Pattern.compile("let\\s+([a-zA-Z0-9_]+)\\s*=\\s*JSON\\.parse\\(([^)]+)\\);?");
-        Matcher jsonParseM = jsonParsePattern.matcher(jsCode);
-        StringBuffer sbJsonParse = new StringBuffer();
-        while (jsonParseM.find()) {
-            String varName  = jsonParseM.group(1);
-            String arg      = jsonParseM.group(2).trim();
+    private static boolean isChatColor(List<ScriptLexer.Token> tokens, int index) {
+        int start = index;
+        if (index + 4 < tokens.size() && tokens.get(index).is("org") && tokens.get(index + 1).isPunct('.')
+                && tokens.get(index + 2).is("bukkit") && tokens.get(index + 3).isPunct('.')) {
+            start += 4;
+        }
+        return start + 2 < tokens.size() && tokens.get(start).is("ChatColor") && tokens.get(start + 1).isPunct('.')
+                && tokens.get(start + 2).kind() == ScriptLexer.Kind.IDENTIFIER;
+    }
 
-            knownJsonObjects.add(varName);
+    private static boolean isStringLiteral(List<ScriptLexer.Token> tokens, int index) {
+        ScriptLexer.Token token = tokens.get(index);
+        return token.kind() == ScriptLexer.Kind.STRING && token.text().charAt(0) == '"';
+    }
 
-            String replacement = "JSONObject " + varName + " = parseJson(" + arg + ");";
-            jsonParseM.appendReplacement(sbJsonParse, replacement);
+    static String hoistConstantMessages(String code, Map<String, String> constants) {
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(code);
+        } catch (RuntimeException e) {
+            return code;
+        }
+        StringBuilder sb = new StringBuilder(code.length());
+        int copied = 0;
+        for (int i = 0; i + 2 < tokens.size(); i++) {
+            if (!MESSAGE_METHODS.contains(tokens.get(i).text()) || !tokens.get(i + 1).isPunct('(')) {
+                continue;
+            }
+            int j = i + 2;
+            boolean runtime = false;
+            boolean operand = true;
+            while (j < tokens.size() && !tokens.get(j).isPunct(')')) {
+                ScriptLexer.Token t = tokens.get(j);
+                if (operand && isStringLiteral(tokens, j)) {
+                    j++;
+                } else if (operand && isChatColor(tokens, j)) {
+                    runtime = true;
+                    j += tokens.get(j).is("org") ? 7 : 3;
+                } else if (!operand && t.isPunct('+')) {
+                    j++;
+                } else {
+                    break;
+                }
+                operand = !operand;
+            }
+            if (!runtime || operand || j >= tokens.size() || !tokens.get(j).isPunct(')')) {
+                continue;
+            }
+            String expression = code.substring(tokens.get(i + 2).start(), tokens.get(j - 1).end());
+            String name = constants.computeIfAbsent(expression, e -> "MESSAGE_" + constants.size());
+            sb.append(code, copied, tokens.get(i + 2).start()).append(name);
+            copied = tokens.get(j - 1).end();
+            i = j;
         }
-        jsonParseM.appendTail(sbJsonParse);
-        jsCode = sbJsonParse.toString();
+        return sb.append(code, copied, code.length()).toString();
+    }
 
-        Pattern propertyAccessPattern = Pattern.compile("([a-zA-Z0-9_]+)\\.([a-zA-Z0-9_]+)");
-        Matcher paMatcher = propertyAccessPattern.matcher(jsCode);
+    static String translatePropertyAccess(String jsCode, Set<String> knownJsonObjects) {
+        if (knownJsonObjects.isEmpty()) {
+            return jsCode;
+        }
+        Matcher paMatcher = PROPERTY_ACCESS_PATTERN.matcher(jsCode);
         StringBuffer sbPa = new StringBuffer();
         while (paMatcher.find()) {
             String objectVar = paMatcher.group(1);
@@ -361,48 +733,16 @@ public class Main {
             }
         }
         paMatcher.appendTail(sbPa);
-        jsCode = sbPa.toString();
-
-        jsCode = jsCode.replaceAll("\\blet\\s+", "String ");
-
-        {
-            Pattern arrayEmptyPattern = Pattern.compile("String\\s+([a-zA-Z0-9_]+)\\s*=\\s*\\[\\]\\s*;");
-            Matcher arrayEmptyMatcher = arrayEmptyPattern.matcher(jsCode);
-            StringBuffer sbArrayEmpty = new StringBuffer();
-            while (arrayEmptyMatcher.find()) {
-                String varName = arrayEmptyMatcher.group(1);
-                String replacement = "List<String> " + varName + " = new ArrayList<>();";
-                arrayEmptyMatcher.appendReplacement(sbArrayEmpty, replacement);
-            }
-            arrayEmptyMatcher.appendTail(sbArrayEmpty);
-            jsCode = sbArrayEmpty.toString();
-        }
-
-        {
-            Pattern lengthEmptyPattern = Pattern.compile("if\\s*\\(\\s*([a-zA-Z0-9_]+)\\.length\\s*===\\s*0\\s*\\)");
-            Matcher lengthEmptyMatcher = lengthEmptyPattern.matcher(jsCode);
-            StringBuffer sbLengthEmpty = new StringBuffer();
-            while (lengthEmptyMatcher.find()) {
-                String varName = lengthEmptyMatcher.group(1);
-                String replacement = "if (" + varName + ".isEmpty())";
-                lengthEmptyMatcher.appendReplacement(sbLengthEmpty, replacement);
-            }
-            lengthEmptyMatcher.appendTail(sbLengthEmpty);
-            jsCode = sbLengthEmpty.toString();
-        }
-
-        jsCode = handleInlineJavaBlocks(jsCode);
-
-        return jsCode;
+        return sbPa.toString();
     }
 
-    private static String handleInlineJavaBlocks(String code) {
+    static String handleInlineJavaBlocks(String code) {
         Matcher matcher = JAVA_BLOCK_PATTERN.matcher(code);
         StringBuffer sb = new StringBuffer();
         while (matcher.find()) {
             String javaCode = matcher.group(1).trim();
 
-            javaCode = javaCode.replaceAll("(?m)^", "        ");
+            javaCode = LINE_START.matcher(javaCode).replaceAll("        ");
 
             javaCode = javaCode.replace("\\", "\\\\").replace("$", "\\$");
             matcher.appendReplacement(sb, Matcher.quoteReplacement(javaCode));
@@ -412,15 +752,14 @@ public class Main {
     }
 
     private static boolean isKnownMethod(String name) {
-
-        return Set.of("toLowerCase","toUpperCase","split","equals",
-                "substring","toString","isEmpty","size",
-                "length","add","push","replaceAll","join").contains(name);
+        return KNOWN_METHODS.contains(name);
     }
 
-    private static String transformDataSetArrays(String code) {
-        Pattern arrayPattern = Pattern.compile("data\\.set\\(\\\"([^\\\"]+)\\\"\\s*,\\s*\\[([^\\]]+)\\]\\)");
-        Matcher arrayMatcher = arrayPattern.matcher(code);
+    static String transformDataSetArrays(String code) {
+        if (!code.contains("data.set(")) {
+            return code;
+        }
+        Matcher arrayMatcher = DATA_SET_ARRAY_PATTERN.matcher(code);
 
         StringBuffer buffer = new StringBuffer();
         while (arrayMatcher.find()) {
@@ -428,10 +767,16 @@ public class Main {
             String arrayContent = arrayMatcher.group(2).trim();
 
             String[] items = arrayContent.split(",");
+            String suffix = "";
+            if (Arrays.stream(items).allMatch(item -> INTEGER_LITERAL.matcher(item.trim()).matches())) {
+                suffix = "L";
+            } else if (Arrays.stream(items).allMatch(item -> DECIMAL_LITERAL.matcher(item.trim()).matches())) {
+                suffix = "d";
+            }
             StringBuilder asList = new StringBuilder("java.util.Arrays.asList(");
             for (int i = 0; i < items.length; i++) {
                 if (i > 0) asList.append(", ");
-                asList.append(items[i].trim());
+                asList.append(items[i].trim()).append(suffix);
             }
             asList.append(")");
 
@@ -442,151 +787,292 @@ public class Main {
         return buffer.toString();
     }
 
-    private static String transformForLoopListAccess(String code) {
-        Pattern forLoopPattern = Pattern.compile(
-                "for\\s*\\(let\\s+(\\w+)\\s*=\\s*(\\d+);\\s*\\1\\s*<\\s*([a-zA-Z0-9_]+)\\.length;\\s*\\1\\+\\+\\)\\s*\\{"
-        );
-        Matcher forM = forLoopPattern.matcher(code);
-        StringBuffer sbFor = new StringBuffer();
-        while (forM.find()) {
-            String loopVar = forM.group(1);
-            String initVal = forM.group(2);
-            String listVar = forM.group(3);
-
-            String replacement = "for (int " + loopVar + " = " + initVal
-                    + "; " + loopVar + " < " + listVar + ".size(); " + loopVar + "++) {";
-            forM.appendReplacement(sbFor, replacement);
-        }
-        forM.appendTail(sbFor);
-        code = sbFor.toString();
-
-        Pattern bracketPattern = Pattern.compile("([a-zA-Z0-9_]+)\\s*\\[\\s*([a-zA-Z0-9_]+)\\s*\\]");
-        Matcher bracketM = bracketPattern.matcher(code);
-        StringBuffer sbBracket = new StringBuffer();
-        while (bracketM.find()) {
-            String listName = bracketM.group(1);
-            String indexVar = bracketM.group(2);
-
-            if (knownListVars.contains(listName)) {
-                String replacement = listName + ".get(" + indexVar + ")";
-                bracketM.appendReplacement(sbBracket, replacement);
-            } else {
-                bracketM.appendReplacement(sbBracket, bracketM.group(0));
-            }
-        }
-        bracketM.appendTail(sbBracket);
-        code = sbBracket.toString();
-
-        return code;
-    }
-
-    public static void generatePluginYml() {
-        String pluginYml = """
+    public static void generatePluginYml(CompilationContext ctx) {
+        String key = BuildCache.key("plugin.yml", ctx.pluginName, ctx.pluginVersion, ctx.pluginPackage, ctx.pluginCommands.toString());
+        ctx.pluginYml = ctx.buildCache.text(key, () -> """
             name: %s
             version: %s
             main: %s.Main
             commands:
             %s
-            """.formatted(pluginName, pluginVersion, pluginPackage, getIndentedCommands());
-
-        try {
-            Path outputDir = Paths.get("output");
-            Files.createDirectories(outputDir);
-            Path pluginYmlPath = Paths.get(outputDir.toString(), "plugin.yml");
-            Files.writeString(pluginYmlPath, pluginYml);
-        } catch (IOException e) {
-            System.err.println("Error guardando plugin.yml: " + e.getMessage());
-        }
+            """.formatted(ctx.pluginName, ctx.pluginVersion, ctx.pluginPackage, getIndentedCommands(ctx)));
     }
 
-    private static String getIndentedCommands() {
+    private static String getIndentedCommands(CompilationContext ctx) {
         StringBuilder indentedCommands = new StringBuilder();
-        String[] commands = pluginCommands.toString().split("\n");
+        String[] commands = ctx.pluginCommands.toString().split("\n");
         for (String command : commands) {
             indentedCommands.append("  ").append(command).append("\n");
         }
         return indentedCommands.toString();
     }
 
-    public static void generateCommandClasses() {
-
-    }
-
-    public static void generateMainClass(String jsCode) {
-        String onCommandCode = generateOnCommand(jsCode);
-        String eventCode     = processEvents(jsCode);
-
-        StringBuilder imports = new StringBuilder();
-        imports.append("import org.bukkit.command.Command;\n");
-        imports.append("import org.bukkit.command.CommandExecutor;\n");
-        imports.append("import org.bukkit.command.CommandSender;\n");
-        imports.append("import org.bukkit.plugin.java.JavaPlugin;\n");
-        imports.append("import org.bukkit.event.EventHandler;\n");
-        imports.append("import org.bukkit.event.Listener;\n");
-        imports.append("import org.bukkit.event.player.*;\n");
-        imports.append("import org.bukkit.event.block.*;\n");
-        imports.append("import org.bukkit.event.entity.*;\n");
-
-        if (usesData || usesJsonParse) {
-            imports.append("import org.json.simple.JSONArray;\n");
-            imports.append("import java.nio.file.Files;\n");
-            imports.append("import java.nio.file.Path;\n");
-            imports.append("import java.nio.file.Paths;\n");
-            imports.append("import java.io.FileWriter;\n");
-            imports.append("import java.io.FileReader;\n");
-            imports.append("import org.json.simple.JSONObject;\n");
-            imports.append("import org.json.simple.parser.JSONParser;\n");
-            imports.append("import org.json.simple.parser.ParseException;\n");
-        }
-
-        if (usesData || usesJsonParse || usesFetch) {
-            imports.append("import java.nio.file.Files;\n");
-            imports.append("import java.nio.file.Path;\n");
-            imports.append("import java.nio.file.Paths;\n");
-            imports.append("import java.io.FileWriter;\n");
-            imports.append("import java.io.FileReader;\n");
-            imports.append("import java.util.ArrayList;\n");
-            imports.append("import java.util.List;\n");
-            imports.append("import java.io.File;\n");
-            imports.append("import java.io.IOException;\n");
-            imports.append("import org.bukkit.Server;\n");
-            imports.append("import org.bukkit.entity.Player;\n");
-        }
-
-        if (usesFetch) {
-            imports.append("import java.net.http.HttpClient;\n");
-            imports.append("import java.net.http.HttpRequest;\n");
-            imports.append("import java.net.http.HttpResponse;\n");
-            imports.append("import java.net.URI;\n");
-        }
-
-        String dataHandlerClass = usesData
-                ? generateDataHandlerClassLiteral(pluginName, dataFileName)
+    public static void generateCommandClasses(CompilationContext ctx, ScriptTree tree) {
+        List<ScriptTree.CommandBlock> commands = tree.commands();
+        Set<String> used = new HashSet<>();
+        List<String> classNames = new ArrayList<>(commands.size());
+        StringBuilder registrations = new StringBuilder();
+        for (ScriptTree.CommandBlock cmd : commands) {
+            String base = capitalize(cmd.name().replaceAll("[^A-Za-z0-9_]", "_")) + "Command";
+            String className = base;
+            for (int n = 2; !used.add(className); n++) {
+                className = base + n;
+            }
+            classNames.add(className);
+            registrations.append("\n        getCommand(\"").append(cmd.name())
+                    .append("\").setExecutor(new ").append(className).append("(this));");
+        }
+
+        String statsClassName = null;
+        if (ctx.stats) {
+            String className = "LatencyStatsCommand";
+            for (int n = 2; !used.add(className); n++) {
+                className = "LatencyStatsCommand" + n;
+            }
+            registrations.append("\n        getCommand(\"").append(statsCommandName(ctx))
+                    .append("\").setExecutor(new ").append(className).append("());");
+            statsClassName = className;
+        }
+
+        List<Integer> indexes = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            indexes.add(i);
+        }
+        List<String> executors = mapBlocks(ctx, indexes,
+                i -> commandExecutor(commands.get(i), classNames.get(i), ctx.stats, ctx.jfr));
+        for (int i = 0; i < executors.size(); i++) {
+            ctx.commandExecutors.put(classNames.get(i), executors.get(i));
+        }
+        if (statsClassName != null) {
+            ctx.commandExecutors.put(statsClassName, generateStatsCommandClass(statsClassName));
+        }
+        ctx.commandRegistrations = registrations.toString();
+    }
+
+    public static void generateMainClass(CompilationContext ctx, ScriptTree tree) {
+        Map<String, String> messages = new LinkedHashMap<>();
+        String executorCode  = String.join("", ctx.commandExecutors.values());
+        ApiIndex api = ApiIndex.load(ctx.buildCache, resolveClasspath(ctx));
+        String eventCode     = hoistConstantMessages(processEvents(ctx, tree.events(), api), messages);
+        StringBuilder messageConstants = new StringBuilder();
+        messages.forEach((expression, name) -> messageConstants.append("private static final String ")
+                .append(name).append(" = ").append(expression).append(";\n    "));
+
+        Set<String> imports = new TreeSet<>();
+        imports.add("org.bukkit.command.Command");
+        imports.add("org.bukkit.command.CommandExecutor");
+        imports.add("org.bukkit.command.CommandSender");
+        imports.add("org.bukkit.plugin.java.JavaPlugin");
+        imports.add("org.bukkit.event.EventHandler");
+        imports.add("org.bukkit.event.Listener");
+        if (api.isEmpty()) {
+            imports.add("org.bukkit.event.player.*");
+            imports.add("org.bukkit.event.block.*");
+            imports.add("org.bukkit.event.entity.*");
+        }
+
+        if (ctx.usesData || ctx.usesJsonParse || ctx.usesPlayerData) {
+            imports.add("org.json.simple.JSONArray");
+            imports.add("java.nio.file.Files");
+            imports.add("java.nio.file.Path");
+            imports.add("java.nio.file.Paths");
+            imports.add("java.io.FileWriter");
+            imports.add("java.io.FileReader");
+            imports.add("org.json.simple.JSONObject");
+            imports.add("org.json.simple.parser.JSONParser");
+            imports.add("org.json.simple.parser.ParseException");
+        }
+
+        if (ctx.usesData || ctx.usesPlayerData) {
+            imports.add("java.nio.file.StandardCopyOption");
+            imports.add("java.util.Collections");
+        }
+
+        boolean managedData = ctx.usesData && (ctx.dataFlushSeconds > 0 || ctx.dataJournal);
+        if (managedData) {
+            imports.add("org.bukkit.scheduler.BukkitTask");
+        }
+        if (ctx.usesData && ctx.dataJournal) {
+            imports.add("java.io.BufferedReader");
+            imports.add("java.io.BufferedWriter");
+            imports.add("java.io.UncheckedIOException");
+            imports.add("java.nio.charset.StandardCharsets");
+            imports.add("java.nio.file.StandardOpenOption");
+        }
+
+        if (ctx.usesData || ctx.usesJsonParse || ctx.usesFetch || ctx.usesPlayerData) {
+            imports.add("java.nio.file.Files");
+            imports.add("java.nio.file.Path");
+            imports.add("java.nio.file.Paths");
+            imports.add("java.io.FileWriter");
+            imports.add("java.io.FileReader");
+            imports.add("java.util.ArrayList");
+            imports.add("java.util.List");
+            imports.add("java.io.File");
+            imports.add("java.io.IOException");
+            imports.add("org.bukkit.Server");
+            imports.add("org.bukkit.entity.Player");
+        }
+
+        if (ctx.usesPlayerData) {
+            imports.add("java.util.HashMap");
+            imports.add("java.util.LinkedHashMap");
+            imports.add("java.util.Map");
+            imports.add("java.util.UUID");
+        }
+
+        if (ctx.usesFetch) {
+            imports.add("java.time.Duration");
+            imports.add("java.util.concurrent.CompletableFuture");
+            imports.add("java.util.function.Consumer");
+            if (ctx.fetchCacheSeconds > 0) {
+                imports.add("java.util.HashMap");
+                imports.add("java.util.LinkedHashMap");
+                imports.add("java.util.Map");
+                imports.add("java.util.concurrent.TimeUnit");
+                imports.add("java.util.concurrent.atomic.AtomicLong");
+            }
+            imports.add("java.net.http.HttpClient");
+            imports.add("java.net.http.HttpRequest");
+            imports.add("java.net.http.HttpResponse");
+            imports.add("java.net.URI");
+        }
+
+        boolean usesJoin = executorCode.contains("joinFrom(") || eventCode.contains("joinFrom(");
+        if (usesJoin) {
+            imports.add("java.util.List");
+            imports.add("java.util.RandomAccess");
+        }
+
+        String dataHandlerClass = ctx.usesData
+                ? generateDataHandlerClassLiteral(ctx.pluginName, ctx.dataFileName, ctx.dataFlushSeconds, ctx.dataJournal,
+                        ctx.stats, ctx.jfr)
                 : "";
 
-        String descriptionMethod = usesDescription ? generateDescriptionMethod() : "";
+        String playerDataClass = ctx.usesPlayerData ? generatePlayerDataStoreClassLiteral(ctx.pluginName) : "";
+
+        String statsClass = "";
+        if (ctx.stats) {
+            imports.add("java.util.ArrayList");
+            imports.add("java.util.List");
+            imports.add("java.util.Map");
+            imports.add("java.util.concurrent.ConcurrentSkipListMap");
+            imports.add("java.util.concurrent.atomic.AtomicLong");
+            imports.add("java.util.concurrent.atomic.AtomicLongArray");
+            imports.add("java.util.concurrent.atomic.LongAdder");
+            statsClass = generateLatencyStatsClassLiteral();
+        }
+
+        String jfrClasses = "";
+        if (ctx.jfr) {
+            imports.add("jdk.jfr.Category");
+            imports.add("jdk.jfr.DataAmount");
+            imports.add("jdk.jfr.Label");
+            imports.add("jdk.jfr.Name");
+            jfrClasses = generateJfrEventClasses(ctx, !tree.events().isEmpty());
+        }
+
+        Set<String> executorImports = new TreeSet<>(imports);
+        Set<String> declared = new HashSet<>(ctx.commandExecutors.keySet());
+        declared.add("Main");
+        addApiImports(imports, api, messageConstants + eventCode + dataHandlerClass + playerDataClass
+                + statsClass + jfrClasses, declared);
+        StringBuilder importLines = new StringBuilder();
+        imports.forEach(name -> importLines.append("import ").append(name).append(";\n"));
+
+        StringBuilder enableHooks = new StringBuilder(ctx.commandRegistrations);
+        StringBuilder disableHooks = new StringBuilder();
+        if (managedData) {
+            enableHooks.append("\n        data.start(this);");
+            disableHooks.append("\n        data.close();");
+        }
+        if (ctx.usesPlayerData) {
+            enableHooks.append("\n        playerData.start(this);");
+            disableHooks.append("\n        playerData.close();");
+        }
+        if (ctx.stats && ctx.statsLogSeconds > 0) {
+            enableHooks.append("\n        LatencyStats.start(this, ").append(ctx.statsLogSeconds).append(");");
+        }
+        String disableMethod = disableHooks.isEmpty() ? "" : """
+
+                @Override
+                public void onDisable() {%s
+                }
+            """.formatted(disableHooks);
+
+        String descriptionMethod = ctx.usesDescription ? generateDescriptionMethod() : "";
 
         String fetchMethod = "";
-        if (usesFetch) {
+        if (ctx.usesFetch) {
+            boolean cached = ctx.fetchCacheSeconds > 0;
+            String fetchBody = cached
+                    ? "return FETCH_CACHE.get(url).join();"
+                    : "return HTTP.send(request(url).build(), HttpResponse.BodyHandlers.ofString()).body();";
+            String fetchAsyncBody = cached
+                    ? "body = FETCH_CACHE.get(url);"
+                    : "body = HTTP.sendAsync(request(url).build(), HttpResponse.BodyHandlers.ofString()).thenApply(HttpResponse::body);";
+
+            Probe probe = Probe.of(ctx.stats, "FETCH_LATENCY", ctx.jfr, "FetchRequest", "url", "payloadSize(result$)");
+            Probe asyncProbe = Probe.of(ctx.stats, "FETCH_ASYNC_LATENCY", ctx.jfr, "FetchRequest", "url", "payloadSize(result)");
+            String fetchBegin = probe.begin("        ");
+            if (ctx.jfr) {
+                fetchBegin = "\n        String result$ = null;" + fetchBegin;
+                fetchBody = fetchBody.replace("return ", "return result$ = ");
+            }
+
             fetchMethod = """
-                public static String fetch(String url) {
+                private static final HttpClient HTTP = HttpClient.newBuilder()
+                        .connectTimeout(Duration.ofSeconds(%1$d))
+                        .followRedirects(HttpClient.Redirect.NORMAL)
+                        .build();
+
+                private static HttpRequest.Builder request(String url) {
+                    return HttpRequest.newBuilder()
+                            .uri(URI.create(url))
+                            .timeout(Duration.ofSeconds(%1$d));
+                }
+
+                public static String fetch(String url) {%4$s
                     try {
-                        HttpClient client = HttpClient.newHttpClient();
-                        HttpRequest request = HttpRequest.newBuilder()
-                                .uri(URI.create(url))
-                                .build();
-                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-                        return response.body();
+                        %2$s
                     } catch (Exception e) {
                         e.printStackTrace();
                         return "";
-                    }
+                    }%5$s
                 }
-            """;
+
+                public void fetchAsync(String url, Consumer<String> callback) {%7$s
+                    CompletableFuture<String> body;
+                    try {
+                        %3$s
+                    } catch (IllegalArgumentException e) {
+                        body = CompletableFuture.failedFuture(e);
+                    }%6$s
+                    body.exceptionally(e -> {
+                                getLogger().warning("fetchAsync " + url + ": " + e);
+                                return "";
+                            })
+                            .thenAccept(result -> getServer().getScheduler().runTask(this, () -> callback.accept(result)));
+                }
+            """.formatted(ctx.fetchTimeoutSeconds, fetchBody, fetchAsyncBody, fetchBegin,
+                    probe.isEmpty() ? "" : " finally {" + probe.finish("            ") + "\n        }",
+                    asyncProbe.isEmpty() ? "" : "\n        body.whenComplete((result, error) -> {" + asyncProbe.finish("            ") + "\n        });",
+                    asyncProbe.begin("        "));
+            if (ctx.stats) {
+                fetchMethod = """
+
+                    private static final LatencyStats FETCH_LATENCY = LatencyStats.of("fetch");
+                    private static final LatencyStats FETCH_ASYNC_LATENCY = LatencyStats.of("fetchAsync");
+                """ + fetchMethod;
+            }
+
+            if (cached) {
+                fetchMethod += generateFetchCacheClassLiteral(ctx.fetchCacheSeconds, ctx.fetchCacheSize);
+            }
         }
 
         String parseJsonMethod = "";
-        if (usesJsonParse) {
+        if (ctx.usesJsonParse) {
             parseJsonMethod = """
                 public static JSONObject parseJson(String jsonText) {
                     try {
@@ -606,128 +1092,483 @@ public class Main {
             """;
         }
 
+        String joinMethod = usesJoin ? generateJoinMethods() : "";
+
         String mainClass = String.format("""
             package %s;
 
             %s
 
-            public class Main extends JavaPlugin implements CommandExecutor, Listener {
+            public class Main extends JavaPlugin implements Listener {
 
                 %s
 
                 @Override
                 public void onEnable() {
                     getLogger().info("Plugin enabled!");
-                    getServer().getPluginManager().registerEvents(this, this);
+                    getServer().getPluginManager().registerEvents(this, this);%s
                 }
-
+            %s
                 %s
 
                 %s
-
                 %s
                 %s
             }
             """,
-                pluginPackage,
-                imports.toString(),
-                dataHandlerClass + "\n" + descriptionMethod,
-                onCommandCode,
+                ctx.pluginPackage,
+                importLines,
+                messageConstants + dataHandlerClass + playerDataClass + statsClass + jfrClasses + "\n" + descriptionMethod,
+                enableHooks,
+                disableMethod,
                 eventCode,
                 fetchMethod,
-                parseJsonMethod
+                parseJsonMethod,
+                joinMethod
         );
 
-        try {
-            Path packageDir = Paths.get("output", pluginPackage.replace(".", "/"));
-            Files.createDirectories(packageDir);
-            Files.writeString(packageDir.resolve("Main.java"), mainClass);
-        } catch (IOException e) {
-            System.err.println("Error saving Main class: " + e.getMessage());
-        }
+        ctx.javaSources.put(ctx.pluginPackage + ".Main", mainClass);
+        Set<String> mainStatics = staticMethods(mainClass);
+        ctx.commandExecutors.forEach((className, code) -> ctx.javaSources.put(ctx.pluginPackage + "." + className,
+                executorUnit(ctx.pluginPackage, code, executorImports, api, declared, mainStatics)));
     }
 
-    private static String processEvents(String jsCode) {
-        StringBuilder eventMethods = new StringBuilder();
-        Pattern eventPattern = Pattern.compile(
-                "event\\(\\s*\"([^\"]+)\"\\s*,\\s*\\(([^)]+)\\)\\s*=>\\s*\\{(.*?)\\}\\s*\\)",
-                Pattern.DOTALL
-        );
-        Matcher matcher = eventPattern.matcher(jsCode);
+    private static String executorUnit(String pluginPackage, String code, Set<String> importPool, ApiIndex api,
+                                       Set<String> declared, Set<String> mainStatics) {
+        Map<String, String> messages = new LinkedHashMap<>();
+        code = hoistConstantMessages(qualifyPluginCalls(code, mainStatics), messages);
+        StringBuilder constants = new StringBuilder();
+        messages.forEach((expression, name) -> constants.append("    private static final String ")
+                .append(name).append(" = ").append(expression).append(";\n"));
+        if (!constants.isEmpty()) {
+            constants.append('\n');
+            int body = code.indexOf("{\n") + 2;
+            code = code.substring(0, body) + constants + code.substring(body);
+        }
 
-        while (matcher.find()) {
-            String eventName  = matcher.group(1);
-            String eventParam = matcher.group(2);
-            String eventBody  = matcher.group(3).trim();
+        Set<String> imports = new TreeSet<>(EXECUTOR_IMPORTS);
+        Set<String> used = identifiers(code);
+        for (String name : importPool) {
+            String simpleName = name.substring(name.lastIndexOf('.') + 1);
+            if (simpleName.equals("*") ? api.isEmpty() : used.contains(simpleName)) {
+                imports.add(name);
+            }
+        }
+        addApiImports(imports, api, code, new HashSet<>(declared));
+        StringBuilder sb = new StringBuilder("package ").append(pluginPackage).append(";\n\n");
+        sb.append("import static ").append(pluginPackage).append(".Main.*;\n\n");
+        imports.forEach(name -> sb.append("import ").append(name).append(";\n"));
+        return sb.append('\n').append(code).toString();
+    }
 
-            String eventClass   = mapEventNameToClass(eventName);
-            String eventPackage = getEventPackage(eventName);
-            String methodName   = "on" + capitalize(eventName);
+    private static String qualifyPluginCalls(String code, Set<String> mainStatics) {
+        if (!code.contains(" plugin;")) {
+            return code;
+        }
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(code);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("No se pudo analizar el ejecutor generado: " + e.getMessage(), e);
+        }
 
-            eventMethods.append(String.format("""
-                @EventHandler
-                public void %s(%s.%s %s) {
-                    %s
+        Set<String> ownMethods = new HashSet<>();
+        boolean[] anonymous = new boolean[tokens.size()];
+        int[] depth = new int[tokens.size()];
+        Deque<Boolean> braces = new ArrayDeque<>();
+        int pendingAnonymous = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.is("new")) {
+                int open = i + 1;
+                while (open < tokens.size() && !tokens.get(open).isPunct('(') && !tokens.get(open).isPunct('[')) {
+                    open++;
+                }
+                int close = matching(tokens, open);
+                if (close > 0 && close + 1 < tokens.size() && tokens.get(close + 1).isPunct('{')) {
+                    pendingAnonymous = close + 1;
+                }
+            } else if (t.isPunct('{')) {
+                braces.push(i == pendingAnonymous || (!braces.isEmpty() && braces.peek()));
+            } else if (t.isPunct('}') && !braces.isEmpty()) {
+                braces.pop();
+            }
+            anonymous[i] = !braces.isEmpty() && braces.peek();
+            depth[i] = braces.size();
+            if (depth[i] == 1 && i > 0 && t.kind() == ScriptLexer.Kind.IDENTIFIER && i + 1 < tokens.size()
+                    && tokens.get(i + 1).isPunct('(') && isDeclaration(tokens.get(i - 1))) {
+                ownMethods.add(t.text());
+            }
+        }
+
+        List<String[]> edits = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            ScriptLexer.Token prev = i > 0 ? tokens.get(i - 1) : null;
+            if (t.kind() != ScriptLexer.Kind.IDENTIFIER || anonymous[i] || depth[i] < 2 && !t.is("this")
+                    || (prev != null && prev.isPunct('.'))) {
+                continue;
+            }
+            if (t.is("Main") && i + 2 < tokens.size() && tokens.get(i + 1).isPunct('.') && tokens.get(i + 2).is("this")) {
+                edits.add(new String[] {String.valueOf(t.start()), String.valueOf(tokens.get(i + 2).end()), "plugin"});
+                i += 2;
+            } else if (t.is("this")) {
+                boolean field = i + 2 < tokens.size() && tokens.get(i + 1).isPunct('.') && tokens.get(i + 2).is("plugin");
+                if (!field) {
+                    edits.add(new String[] {String.valueOf(t.start()), String.valueOf(t.end()), "plugin"});
+                }
+            } else if (i + 1 < tokens.size() && tokens.get(i + 1).isPunct('(') && !CALL_KEYWORDS.contains(t.text())
+                    && !ownMethods.contains(t.text()) && !mainStatics.contains(t.text())
+                    && !prev.is("new") && !prev.isPunct('@') && !(prev.isPunct(':') && tokens.get(i - 2).isPunct(':'))) {
+                edits.add(new String[] {String.valueOf(t.start()), String.valueOf(t.start()), "plugin."});
+            }
+        }
+        StringBuilder sb = new StringBuilder(code.length() + edits.size() * 8);
+        int copied = 0;
+        for (String[] edit : edits) {
+            sb.append(code, copied, Integer.parseInt(edit[0])).append(edit[2]);
+            copied = Integer.parseInt(edit[1]);
+        }
+        return sb.append(code, copied, code.length()).toString();
+    }
+
+    private static boolean isDeclaration(ScriptLexer.Token previous) {
+        return previous.isPunct('>') || previous.isPunct(']')
+                || (previous.kind() == ScriptLexer.Kind.IDENTIFIER && !CALL_KEYWORDS.contains(previous.text())
+                && !previous.is("else") && !previous.is("case") && !previous.is("do"));
+    }
+
+    private static int matching(List<ScriptLexer.Token> tokens, int open) {
+        int depth = 0;
+        for (int j = open; j < tokens.size(); j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.isPunct('(') || t.isPunct('[')) {
+                depth++;
+            } else if ((t.isPunct(')') || t.isPunct(']')) && --depth == 0) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private static Set<String> staticMethods(String mainClass) {
+        Set<String> methods = new HashSet<>();
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(mainClass);
+        } catch (RuntimeException e) {
+            return methods;
+        }
+        int depth = 0;
+        boolean isStatic = false;
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.isPunct('{')) {
+                depth++;
+                isStatic = false;
+            } else if (t.isPunct('}')) {
+                depth--;
+                isStatic = false;
+            } else if (depth == 1 && t.isPunct(';')) {
+                isStatic = false;
+            } else if (depth == 1 && t.is("static")) {
+                isStatic = true;
+            } else if (depth == 1 && isStatic && i > 0 && t.kind() == ScriptLexer.Kind.IDENTIFIER
+                    && tokens.get(i + 1).isPunct('(') && isDeclaration(tokens.get(i - 1))) {
+                methods.add(t.text());
+            }
+        }
+        return methods;
+    }
+
+    private static Set<String> identifiers(String code) {
+        Set<String> names = new HashSet<>();
+        try {
+            for (ScriptLexer.Token t : ScriptLexer.tokenize(code)) {
+                if (t.kind() == ScriptLexer.Kind.IDENTIFIER) {
+                    names.add(t.text());
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new RuntimeException("No se pudo analizar el ejecutor generado: " + e.getMessage(), e);
+        }
+        return names;
+    }
+
+    private static String generateJoinMethods() {
+        return """
+                public static String joinFrom(String[] parts, int from, String separator) {
+                    if (from < 0) {
+                        from = Math.max(0, parts.length + from);
+                    }
+                    if (from >= parts.length) {
+                        return "";
+                    }
+                    int length = separator.length() * (parts.length - from - 1);
+                    for (int i = from; i < parts.length; i++) {
+                        length += parts[i].length();
+                    }
+                    StringBuilder sb = new StringBuilder(length);
+                    sb.append(parts[from]);
+                    for (int i = from + 1; i < parts.length; i++) {
+                        sb.append(separator).append(parts[i]);
+                    }
+                    return sb.toString();
+                }
+
+                public static String joinFrom(List<?> parts, int from, String separator) {
+                    int size = parts.size();
+                    if (from < 0) {
+                        from = Math.max(0, size + from);
+                    }
+                    if (from >= size) {
+                        return "";
+                    }
+                    StringBuilder sb;
+                    if (parts instanceof RandomAccess) {
+                        int length = separator.length() * (size - from - 1);
+                        for (int i = from; i < size; i++) {
+                            length += parts.get(i) instanceof CharSequence text ? text.length() : 16;
+                        }
+                        sb = new StringBuilder(length);
+                        for (int i = from; i < size; i++) {
+                            if (i > from) {
+                                sb.append(separator);
+                            }
+                            sb.append(parts.get(i));
+                        }
+                    } else {
+                        sb = new StringBuilder((separator.length() + 16) * (size - from));
+                        boolean first = true;
+                        for (Object part : parts.subList(from, size)) {
+                            if (!first) {
+                                sb.append(separator);
+                            }
+                            sb.append(part);
+                            first = false;
+                        }
+                    }
+                    return sb.toString();
+                }
+            """;
+    }
+
+    private static void addApiImports(Set<String> imports, ApiIndex api, String code, Set<String> declared) {
+        if (api.isEmpty()) {
+            return;
+        }
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(code);
+        } catch (RuntimeException e) {
+            imports.add("org.bukkit.event.player.*");
+            imports.add("org.bukkit.event.block.*");
+            imports.add("org.bukkit.event.entity.*");
+            return;
+        }
+        for (int i = 1; i < tokens.size(); i++) {
+            if (tokens.get(i - 1).is("class")) {
+                declared.add(tokens.get(i).text());
+            }
+        }
+        Set<String> taken = new HashSet<>(declared);
+        imports.forEach(name -> taken.add(name.substring(name.lastIndexOf('.') + 1)));
+        for (int i = 0; i < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.kind() != ScriptLexer.Kind.IDENTIFIER || !Character.isUpperCase(t.text().charAt(0))
+                    || (i > 0 && tokens.get(i - 1).isPunct('.')) || taken.contains(t.text())) {
+                continue;
+            }
+            String qualified = api.qualify(t.text());
+            if (qualified != null && !isJavaLang(t.text())) {
+                imports.add(qualified);
+            }
+            taken.add(t.text());
+        }
+    }
+
+    private static boolean isJavaLang(String simpleName) {
+        try {
+            Class.forName("java.lang." + simpleName, false, ClassLoader.getPlatformClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static String processEvents(CompilationContext ctx, List<ScriptTree.EventBlock> events, ApiIndex api) {
+        return String.join("", mapBlocks(ctx, events, evt -> eventMethod(evt, api, ctx.stats, ctx.jfr)));
+    }
+
+    private static String eventMethod(ScriptTree.EventBlock evt, ApiIndex api, boolean stats, boolean jfr) {
+        String eventName  = evt.name();
+        String eventParam = evt.param();
+        String eventBody  = evt.body().trim();
+
+        String eventType  = api.eventClass(eventName);
+        if (eventType == null) {
+            eventType = getEventPackage(eventName) + "." + mapEventNameToClass(eventName);
+        }
+        String methodName = "on" + capitalize(eventName);
+
+        Probe probe = Probe.of(stats, methodName + "Latency", jfr, "HandlerExecution", "\"" + eventName + "\"", null);
+        if (!probe.isEmpty()) {
+            String latencyField = stats
+                    ? "private static final LatencyStats " + methodName + "Latency = LatencyStats.of(\"event " + eventName + "\");\n\n"
+                    : "";
+            return latencyField + String.format("""
+                @EventHandler
+                public void %s(%s %s) {%s
+                    try {
+                        %s
+                    } finally {%s
+                    }
                 }
 
                 """,
                     methodName,
-                    eventPackage,
-                    eventClass,
+                    eventType,
                     eventParam,
-                    eventBody
-            ));
+                    probe.begin("    "),
+                    eventBody,
+                    probe.finish("        ")
+            );
         }
 
-        return eventMethods.toString();
+        return String.format("""
+            @EventHandler
+            public void %s(%s %s) {
+                %s
+            }
+
+            """,
+                methodName,
+                eventType,
+                eventParam,
+                eventBody
+        );
     }
 
-    private static String generateOnCommand(String jsCode) {
+    private static String commandExecutor(ScriptTree.CommandBlock cmd, String className, boolean stats, boolean jfr) {
+        String body = cmd.body();
+
+        if (body.contains("console.")) {
+            body = CONSOLE_LOG_PATTERN.matcher(body).replaceAll("getLogger().info($1);");
+            body = CONSOLE_ERROR_PATTERN.matcher(body).replaceAll("getLogger().severe($1);");
+            body = CONSOLE_WARN_PATTERN.matcher(body).replaceAll("getLogger().warning($1);");
+        }
+        body = returnTrueOutsideLambdas(body);
+
+        Probe probe = Probe.of(stats, "latency", jfr, "CommandExecution", "\"/" + cmd.name() + "\"", "payloadSize(args)");
+        String indent = probe.isEmpty() ? "        " : "            ";
         StringBuilder sb = new StringBuilder();
-        sb.append("@Override\n");
-        sb.append("public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {\n\n");
+        sb.append("final class ").append(className).append(" implements CommandExecutor {\n");
+        if (stats) {
+            sb.append("    private final LatencyStats latency = LatencyStats.of(\"/").append(cmd.name()).append("\");\n");
+        }
+        sb.append("    private final Main plugin;\n\n");
+        sb.append("    ").append(className).append("(Main plugin) {\n");
+        sb.append("        this.plugin = plugin;\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public boolean onCommand(CommandSender ").append(cmd.senderParam())
+                .append(", Command command, String label, String[] args) {");
+        if (!probe.isEmpty()) {
+            sb.append(probe.begin("        "));
+            sb.append("\n        try {");
+        }
+        sb.append("\n");
+
+        String[] lines = body.split("\n");
+        String last = "";
+        for (String line : lines) {
+            sb.append(indent).append(line).append("\n");
+            if (!line.isBlank()) {
+                last = line.trim();
+            }
+        }
+        if (!last.startsWith("return ")) {
+            sb.append(indent).append("return true;\n");
+        }
+        if (!probe.isEmpty()) {
+            sb.append("        } finally {").append(probe.finish("            ")).append("\n        }\n");
+        }
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
 
-        Pattern cmdPattern = Pattern.compile(
-                "command\\(\\s*\"([^\"]+)\"\\s*,\\s*\\([^)]*\\)\\s*=>\\s*\\{(.*?)\\}\\s*\\)",
-                Pattern.DOTALL
-        );
-        Matcher cmdMatcher = cmdPattern.matcher(jsCode);
+    private record Probe(List<String> begin, List<String> finish) {
 
-        while (cmdMatcher.find()) {
-            String cmdName = cmdMatcher.group(1);
-            String body    = cmdMatcher.group(2);
+        static Probe of(boolean stats, String latency, boolean jfr, String jfrEvent, String name, String payload) {
+            List<String> begin = new ArrayList<>();
+            List<String> finish = new ArrayList<>();
+            if (stats) {
+                begin.add("long start$ = System.nanoTime();");
+                finish.add(latency + ".record(start$);");
+            }
+            if (jfr) {
+                begin.add(jfrEvent + " jfr$ = new " + jfrEvent + "();");
+                begin.add("jfr$.begin();");
+                finish.add("if (jfr$.shouldCommit()) {");
+                finish.add("    jfr$.name = " + name + ";");
+                if (payload != null) {
+                    finish.add("    jfr$.payloadSize = " + payload + ";");
+                }
+                finish.add("    jfr$.commit();");
+                finish.add("}");
+            }
+            return new Probe(begin, finish);
+        }
 
-            body = body.replaceAll("console\\.log\\(([^)]+)\\);?",   "getLogger().info($1);");
-            body = body.replaceAll("console\\.error\\(([^)]+)\\);?", "getLogger().severe($1);");
-            body = body.replaceAll("console\\.warn\\(([^)]+)\\);?",  "getLogger().warning($1);");
-            body = body.replaceAll("return;",                        "return true;");
+        boolean isEmpty() {
+            return begin.isEmpty();
+        }
 
-            sb.append("    if (command.getName().equalsIgnoreCase(\"")
-                    .append(cmdName)
-                    .append("\")) {\n");
+        String begin(String indent) {
+            return lines(begin, indent);
+        }
 
-            String[] lines = body.split("\n");
-            for (String line : lines) {
-                sb.append("        ").append(line).append("\n");
-            }
-            sb.append("        return true;\n");
-            sb.append("    }\n\n");
+        String finish(String indent) {
+            return lines(finish, indent);
         }
 
-        sb.append("    return false;\n");
-        sb.append("}\n");
-        return sb.toString();
+        private static String lines(List<String> statements, String indent) {
+            StringBuilder sb = new StringBuilder();
+            statements.forEach(statement -> sb.append('\n').append(indent).append(statement));
+            return sb.toString();
+        }
     }
 
-    private static String mapEventNameToClass(String eventName) {
-        Map<String, String> eventMap = new HashMap<>();
-        eventMap.put("playerJoin", "PlayerJoinEvent");
-        eventMap.put("playerQuit", "PlayerQuitEvent");
-        eventMap.put("blockBreak", "BlockBreakEvent");
-        eventMap.put("blockPlace", "BlockPlaceEvent");
-        eventMap.put("entityDamage", "EntityDamageEvent");
+    private static String returnTrueOutsideLambdas(String body) {
+        List<ScriptLexer.Token> tokens;
+        try {
+            tokens = ScriptLexer.tokenize(body);
+        } catch (RuntimeException e) {
+            return body.replaceAll("return;", "return true;");
+        }
+        StringBuilder sb = new StringBuilder();
+        Deque<Boolean> braces = new ArrayDeque<>();
+        int lambdas = 0;
+        int copied = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.isPunct('{')) {
+                boolean lambda = i > 1 && tokens.get(i - 1).isPunct('>') && tokens.get(i - 2).isPunct('-');
+                braces.push(lambda);
+                lambdas += lambda ? 1 : 0;
+            } else if (t.isPunct('}') && !braces.isEmpty()) {
+                lambdas -= braces.pop() ? 1 : 0;
+            } else if (lambdas == 0 && t.is("return") && i + 1 < tokens.size() && tokens.get(i + 1).isPunct(';')) {
+                sb.append(body, copied, t.end()).append(" true");
+                copied = t.end();
+            }
+        }
+        return sb.append(body.substring(copied)).toString();
+    }
 
-        return eventMap.getOrDefault(eventName, "Event");
+    private static String mapEventNameToClass(String eventName) {
+        return EVENT_CLASSES.getOrDefault(eventName, "Event");
     }
 
     private static String getEventPackage(String eventName) {
@@ -741,121 +1582,107 @@ public class Main {
         return "org.bukkit.event";
     }
 
-    public static void compileJavaFiles() {
-        try {
-            List<String> javaFiles = new ArrayList<>();
-            javaFiles.add("output/" + pluginPackage.replace(".", "/") + "/Main.java");
-
-            String spigotJarPath = "C:/spigot/spigot.jar";
-            String jsonJarPath   = "C:/spigot/json-simple.jar";
-
-            List<String> command = new ArrayList<>();
-            command.add("javac");
-            command.add("-verbose");
-            command.add("-d");
-            command.add("output");
-            command.add("-cp");
+    public static boolean compileJavaFiles(CompilationContext ctx) {
+        List<String> cp = resolveClasspath(ctx);
+        String classpath = String.join(File.pathSeparator, cp);
+        String mainUnit = ctx.pluginPackage + ".Main";
+        String shared = ctx.javaSources.getOrDefault(mainUnit, "");
+        if (!ctx.commandRegistrations.isEmpty()) {
+            shared = shared.replace(ctx.commandRegistrations, "");
+        }
 
-            String classpath = "output" + File.pathSeparator + spigotJarPath;
-            if (usesData || usesJsonParse) {
-                classpath += File.pathSeparator + jsonJarPath;
+        Map<String, Map<String, byte[]>> units = new LinkedHashMap<>();
+        Map<String, byte[]> compiled = new LinkedHashMap<>();
+        Map<String, String> missing = new LinkedHashMap<>();
+        Map<String, String> keys = new HashMap<>();
+        for (Map.Entry<String, String> source : ctx.javaSources.entrySet()) {
+            String key = BuildCache.key("class", classpath, source.getKey(), source.getValue(),
+                    source.getKey().equals(mainUnit) ? "" : shared);
+            Map<String, byte[]> cached = ctx.buildCache.classes(key);
+            units.put(source.getKey(), cached);
+            if (cached != null) {
+                compiled.putAll(cached);
+            } else {
+                missing.put(source.getKey(), source.getValue());
+                keys.put(source.getKey(), key);
             }
-            command.add(classpath);
-
-            command.addAll(javaFiles);
-
-            Process process = new ProcessBuilder(command)
-                    .redirectErrorStream(true)
-                    .start();
+        }
+        if (missing.isEmpty()) {
+            ctx.compiledClasses = joinUnits(units);
+            return true;
+        }
 
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.out.println("Compilation: " + line);
-                }
-            }
+        InMemoryCompiler.Result result = InMemoryCompiler.compile(missing, compiled, cp);
 
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                System.err.println("Compilation failed with exit code: " + exitCode);
+        for (Diagnostic<? extends JavaFileObject> d : result.diagnostics()) {
+            if (d.getKind() == Diagnostic.Kind.ERROR || d.getKind() == Diagnostic.Kind.WARNING) {
+                ctx.err.println("\nCompilation: " + InMemoryCompiler.format(d));
             }
-
-        } catch (Exception e) {
-            System.err.println("Error compiling classes: " + e.getMessage());
-            e.printStackTrace();
         }
+        if (!result.success()) {
+            ctx.err.println("Compilation failed with " + result.errors().size() + " error(s).");
+            return false;
+        }
+        for (String unit : missing.keySet()) {
+            units.put(unit, new LinkedHashMap<>());
+        }
+        result.classes().forEach((name, bytes) -> units.get(result.origins().get(name)).put(name, bytes));
+        keys.forEach((unit, key) -> ctx.buildCache.putClasses(key, units.get(unit)));
+        ctx.compiledClasses = joinUnits(units);
+        return true;
     }
 
-    public static void createJar(String outputJar) {
-        try {
-            Path jarPath = Paths.get("output", outputJar);
-
-            File outputDir = new File("output");
-            if (!outputDir.exists() || !outputDir.isDirectory()) {
-                System.err.println("El directorio 'output' no existe.");
-                return;
-            }
-
-            Process process = new ProcessBuilder(
-                    "jar",
-                    "cf",
-                    jarPath.toString(),
-                    "-C", "output",
-                    "."
-            ).start();
-
-            process.waitFor();
-            if (process.exitValue() == 0) {
-                System.out.println("Archivo .jar creado en: " + jarPath);
-            } else {
-                System.err.println("Error creando el archivo .jar.");
-            }
+    private static Map<String, byte[]> joinUnits(Map<String, Map<String, byte[]>> units) {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        units.values().forEach(classes::putAll);
+        return classes;
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error creando el archivo .jar: " + e.getMessage());
+    private static List<String> resolveClasspath(CompilationContext ctx) {
+        if (ctx.classpath != null) {
+            return ctx.classpath;
         }
+        List<String> defaults = new ArrayList<>();
+        defaults.add("C:/spigot/spigot.jar");
+        if (ctx.usesData || ctx.usesJsonParse || ctx.usesPlayerData) {
+            defaults.add("C:/spigot/json-simple.jar");
+        }
+        return defaults;
     }
 
-    public static void deleteUnwantedJavaFiles() {
+    public static boolean createJar(CompilationContext ctx, String outputJar) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("plugin.yml", ctx.pluginYml.getBytes(StandardCharsets.UTF_8));
+        for (Map.Entry<String, byte[]> entry : ctx.compiledClasses.entrySet()) {
+            entries.put(entry.getKey().replace(".", "/") + ".class", entry.getValue());
+        }
+
+        Path jarPath = ctx.outputDir.resolve(outputJar);
         try {
-            Files.walk(Paths.get("output"))
-                    .filter(path -> path.toString().endsWith(".java"))
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                        } catch (IOException e) {
-                            System.err.println("Error eliminando archivo: " + e.getMessage());
-                        }
-                    });
+            JarPackager.write(jarPath, entries, ctx.jarMode);
+            if (!ctx.quiet) {
+                ctx.out.println("Archivo .jar creado en: " + jarPath);
+            }
+            return true;
         } catch (IOException e) {
-            System.err.println("Error limpiando archivos Java no deseados: " + e.getMessage());
+            ctx.err.println("Error creando el archivo .jar: " + e.getMessage());
+            return false;
         }
     }
 
-    public static void showElapsedTime() {
-        long endTime = System.currentTimeMillis();
-        long elapsedMillis = endTime - startTime;
-
-        long seconds = (elapsedMillis / 1000) % 60;
-        long minutes = (elapsedMillis / (1000 * 60)) % 60;
-        long hours   = (elapsedMillis / (1000 * 60 * 60)) % 24;
-
-        System.out.println("\nTiempo total de compilación: "
-                + hours + " horas, "
-                + minutes + " minutos, "
-                + seconds + " segundos.");
+    public static void showElapsedTime(CompilationContext ctx) {
+        ctx.out.println("\nTiempo total de compilación: " + ctx.metrics.summary() + ".");
     }
 
-    public static void updateProgress(String message) {
-        long elapsedTime = System.currentTimeMillis() - startTime;
+    public static void updateProgress(CompilationContext ctx, String message) {
+        if (!ctx.showProgress) {
+            return;
+        }
         double progress = calculateProgress(message);
 
-        System.out.print("\r" + getProgressBar(progress) + " " + (int)(progress * 100) + "% " + getShortMessage(message));
-
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        ctx.out.print("\r" + getProgressBar(progress) + " " + (int)(progress * 100) + "% " + getShortMessage(message));
+        if (progress >= 1.0) {
+            ctx.out.println();
         }
     }
 
@@ -906,45 +1733,69 @@ public class Main {
             """;
     }
 
-    private static String generateDataHandlerClassLiteral(String pluginName, String dataFileName) {
+    static String generateDataHandlerClassLiteral(String pluginName, String dataFileName, int flushSeconds, boolean journal,
+                                                  boolean stats, boolean jfr) {
+        boolean writeBehind = flushSeconds > 0;
+        String sync    = writeBehind || journal ? "synchronized " : "";
+        String onWrite = journal ? "append(key, jsonObject.get(key));" : writeBehind ? "dirty = true;" : "saveData();";
+        String storage = journal
+                ? generateJournalStorage(pluginName, flushSeconds, stats, jfr)
+                : generateJsonStorage(pluginName, flushSeconds, stats, jfr);
+
         return """
-            private static final DataHandler data = new DataHandler();
+            static final DataHandler data = new DataHandler();
 
             public static class DataHandler {
-                private static final String DATA_FILE = "%s";
-                private static JSONObject jsonObject = new JSONObject();
+                private static final String DATA_FILE = "%1$s";
+                private static JSONObject jsonObject = new JSONObject();%6$s
 
                 public DataHandler() {
                     loadData();
                 }
 
-                public void set(String key, Object value) {
+                public %2$svoid set(String key, Object value) {
                     jsonObject.put(key, value);
-                    saveData();
+                    %3$s
                 }
 
-                public Object get(String key) {
+                public %2$sObject get(String key) {
                     return jsonObject.get(key);
                 }
 
-                public String getString(String key) {
+                public %2$sString getString(String key) {
                     Object val = jsonObject.get(key);
-                    return val == null ? null : val.toString();
+                    return val == null || val instanceof String ? (String) val : val.toString();
+                }
+
+                public %2$sint getInt(String key) {
+                    return (int) asLong(jsonObject.get(key));
+                }
+
+                public %2$slong getLong(String key) {
+                    return asLong(jsonObject.get(key));
+                }
+
+                public %2$sdouble getDouble(String key) {
+                    return asDouble(jsonObject.get(key));
+                }
+
+                public %2$sboolean getBoolean(String key) {
+                    return asBoolean(jsonObject.get(key));
                 }
 
                 @SuppressWarnings("unchecked")
-                public void setArray(String key, List<String> list) {
+                public %2$svoid setArray(String key, List<?> list) {
                     JSONArray array = new JSONArray();
                     array.addAll(list);
                     jsonObject.put(key, array);
-                    saveData();
+                    %3$s
                 }
 
                 @SuppressWarnings("unchecked")
-                public List<String> getArray(String key) {
+                public %2$sList<String> getArray(String key) {
                     Object val = jsonObject.get(key);
                     if (val instanceof JSONArray arr) {
-                        List<String> result = new ArrayList<>();
+                        List<String> result = new ArrayList<>(arr.size());
                         for (Object o : arr) {
                             result.add(o.toString());
                         }
@@ -953,8 +1804,58 @@ public class Main {
                     return new ArrayList<>();
                 }
 
+                @SuppressWarnings("unchecked")
+                public %2$sList<Object> getArrayView(String key) {
+                    Object val = jsonObject.get(key);
+                    return val instanceof JSONArray arr ? Collections.unmodifiableList(arr) : Collections.emptyList();
+                }
+
+            %5$s
+            %4$s}
+            """.formatted(dataFileName, sync, onWrite, storage, generateValueConverters(),
+                stats ? "\n    private static final LatencyStats SAVE_LATENCY = LatencyStats.of(\"data.save\");" : "");
+    }
+
+    private static String generateJsonStorage(String pluginName, int flushSeconds, boolean stats, boolean jfr) {
+        Probe probe = Probe.of(stats, "SAVE_LATENCY", jfr, "DataWrite", "DATA_FILE", "payloadSize(content)");
+        String writeBehindMembers = flushSeconds <= 0 ? "" : """
+                private static final long FLUSH_TICKS = %d * 20L;
+                private final Object writeLock = new Object();
+                private boolean dirty = false;
+                private BukkitTask flushTask;
+
+                public void start(JavaPlugin plugin) {
+                    flushTask = plugin.getServer().getScheduler()
+                            .runTaskTimerAsynchronously(plugin, this::flush, FLUSH_TICKS, FLUSH_TICKS);
+                }
+
+                public void close() {
+                    if (flushTask != null) {
+                        flushTask.cancel();
+                        flushTask = null;
+                    }
+                    flush();
+                }
+
+                public void flush() {
+                    synchronized (writeLock) {
+                        String content;
+                        synchronized (this) {
+                            if (!dirty) {
+                                return;
+                            }
+                            content = jsonObject.toJSONString();
+                            dirty = false;
+                        }
+                        writeFile(content);
+                    }
+                }
+
+            """.formatted(flushSeconds);
+
+        return writeBehindMembers + """
                 private void loadData() {
-                    File folder = new File("plugins", "%s");
+                    File folder = new File("plugins", "%1$s");
                     folder.mkdirs();
 
                     File file = new File(folder, DATA_FILE);
@@ -974,17 +1875,733 @@ public class Main {
                 }
 
                 private void saveData() {
-                    File folder = new File("plugins", "%s");
+                    writeFile(jsonObject.toJSONString());
+                }
+
+                private void writeFile(String content) {%2$s
+                    File folder = new File("plugins", "%1$s");
                     folder.mkdirs();
 
-                    File file = new File(folder, DATA_FILE);
+                    Path file = new File(folder, DATA_FILE).toPath();
+                    try {
+                        Path tmp = Files.createTempFile(folder.toPath(), DATA_FILE, ".tmp");
+                        Files.writeString(tmp, content);
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }%3$s
+                }
+            """.formatted(pluginName, probe.begin("        "), probe.finish("        "));
+    }
+
+    private static String generateJournalStorage(String pluginName, int flushSeconds, boolean stats, boolean jfr) {
+        Probe probe = Probe.of(stats, "SAVE_LATENCY", jfr, "DataWrite", "key", "bytes");
+        boolean writeBehind = flushSeconds > 0;
+        return """
+                private static final long COMPACT_BYTES = 4L * 1024 * 1024;
+                private static final long FLUSH_TICKS = %1$d * 20L;
+                private final Path folder = Paths.get("plugins", "%2$s");
+                private final Path snapshotFile = folder.resolve(DATA_FILE);
+                private final Path journalFile = folder.resolve(DATA_FILE + ".journal");
+                private final Path compactingFile = folder.resolve(DATA_FILE + ".journal.old");
+                private BufferedWriter journal;
+                private long journalBytes = 0;
+                private boolean compacting = false;
+                private boolean loaded = false;
+                private JavaPlugin plugin;
+                private BukkitTask flushTask;
+
+                public synchronized void start(JavaPlugin plugin) {
+                    this.plugin = plugin;
+                    if (FLUSH_TICKS > 0) {
+                        flushTask = plugin.getServer().getScheduler()
+                                .runTaskTimerAsynchronously(plugin, this::flush, FLUSH_TICKS, FLUSH_TICKS);
+                    }
+                }
+
+                public synchronized void close() {
+                    if (flushTask != null) {
+                        flushTask.cancel();
+                        flushTask = null;
+                    }
+                    plugin = null;
+                    try {
+                        journal.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+
+                public synchronized void flush() {
                     try {
-                        Files.writeString(file.toPath(), jsonObject.toJSONString());
+                        journal.flush();
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
                 }
+
+                private void loadData() {
+                    try {
+                        Files.createDirectories(folder);
+                        if (Files.exists(snapshotFile)) {
+                            jsonObject = (JSONObject) new JSONParser().parse(Files.readString(snapshotFile));
+                        }
+                        replay(compactingFile);
+                        replay(journalFile);
+                        loaded = true;
+                    } catch (IOException | ParseException | ClassCastException e) {
+                        e.printStackTrace();
+                        System.err.println("[%2$s] Could not load " + snapshotFile
+                                + "; changes are kept in the journal and compaction is disabled until it is fixed.");
+                    } finally {
+                        openJournal();
+                    }
+                    if (loaded && Files.exists(compactingFile)) {
+                        compacting = true;
+                        compact();
+                    }
+                }
+
+                private void openJournal() {
+                    try {
+                        journalBytes = Files.exists(journalFile) ? Files.size(journalFile) : 0;
+                        journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not open " + journalFile, e);
+                    }
+                }
+
+                @SuppressWarnings("unchecked")
+                private void replay(Path file) throws IOException {
+                    if (!Files.exists(file)) {
+                        return;
+                    }
+                    JSONParser parser = new JSONParser();
+                    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (line.isBlank()) {
+                                continue;
+                            }
+                            try {
+                                JSONObject entry = (JSONObject) parser.parse(line);
+                                jsonObject.put(entry.get("k"), entry.get("v"));
+                            } catch (ParseException e) {
+                                break;
+                            }
+                        }
+                    }
+                }
+
+                @SuppressWarnings("unchecked")
+                private void append(String key, Object value) {%4$s
+                    JSONObject entry = new JSONObject();
+                    entry.put("k", key);
+                    entry.put("v", value);
+                    String line = entry.toJSONString() + "\\n";
+                    int bytes = line.getBytes(StandardCharsets.UTF_8).length;
+                    try {
+                        journal.write(line);
+                        %3$s
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }%5$s
+                    journalBytes += bytes;
+                    if (journalBytes > COMPACT_BYTES && loaded && !compacting) {
+                        compacting = true;
+                        if (plugin != null) {
+                            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this::compact);
+                        } else {
+                            compact();
+                        }
+                    }
+                }
+
+                private void compact() {
+                    try {
+                        if (Files.exists(compactingFile)) {
+                            writeSnapshot(snapshot());
+                            Files.delete(compactingFile);
+                        }
+                        writeSnapshot(rotate());
+                        Files.delete(compactingFile);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        synchronized (this) {
+                            compacting = false;
+                        }
+                    }
+                }
+
+                private synchronized String snapshot() {
+                    return jsonObject.toJSONString();
+                }
+
+                private synchronized String rotate() throws IOException {
+                    String content = jsonObject.toJSONString();
+                    try {
+                        journal.close();
+                        Files.move(journalFile, compactingFile, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        openJournal();
+                    }
+                    return content;
+                }
+
+                private void writeSnapshot(String content) throws IOException {
+                    Path tmp = Files.createTempFile(folder, DATA_FILE, ".tmp");
+                    Files.writeString(tmp, content);
+                    Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            """.formatted(flushSeconds, pluginName, writeBehind ? "" : "journal.flush();",
+                probe.begin("        "), probe.finish("        "));
+    }
+
+    private static String generateLatencyStatsClassLiteral() {
+        return """
+
+            public static final class LatencyStats {
+                private static final int BUCKETS = 48;
+                private static final Map<String, LatencyStats> ALL = new ConcurrentSkipListMap<>();
+
+                private final String name;
+                private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+                private final LongAdder count = new LongAdder();
+                private final LongAdder totalNanos = new LongAdder();
+                private final AtomicLong maxNanos = new AtomicLong();
+
+                private LatencyStats(String name) {
+                    this.name = name;
+                }
+
+                public static LatencyStats of(String name) {
+                    return ALL.computeIfAbsent(name, LatencyStats::new);
+                }
+
+                public static void start(JavaPlugin plugin, long seconds) {
+                    long ticks = seconds * 20L;
+                    plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin,
+                            () -> report().forEach(plugin.getLogger()::info), ticks, ticks);
+                }
+
+                public void record(long startNanos) {
+                    long nanos = Math.max(0, System.nanoTime() - startNanos);
+                    buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+                    count.increment();
+                    totalNanos.add(nanos);
+                    if (nanos > maxNanos.get()) {
+                        maxNanos.accumulateAndGet(nanos, Math::max);
+                    }
+                }
+
+                public static List<String> report() {
+                    List<String> lines = new ArrayList<>();
+                    for (LatencyStats stats : ALL.values()) {
+                        long total = stats.count.sum();
+                        if (total > 0) {
+                            lines.add(String.format("%s: %d llamadas, media %s, p50 %s, p99 %s, máx %s", stats.name, total,
+                                    millis(stats.totalNanos.sum() / total), millis(stats.percentile(total, 0.50)),
+                                    millis(stats.percentile(total, 0.99)), millis(stats.maxNanos.get())));
+                        }
+                    }
+                    return lines;
+                }
+
+                public static void reset() {
+                    for (LatencyStats stats : ALL.values()) {
+                        for (int i = 0; i < BUCKETS; i++) {
+                            stats.buckets.set(i, 0);
+                        }
+                        stats.count.reset();
+                        stats.totalNanos.reset();
+                        stats.maxNanos.set(0);
+                    }
+                }
+
+                private long percentile(long total, double quantile) {
+                    long rank = Math.max(1, (long) Math.ceil(total * quantile));
+                    long seen = 0;
+                    for (int i = 0; i < BUCKETS; i++) {
+                        seen += buckets.get(i);
+                        if (seen >= rank) {
+                            return Math.min(i == 0 ? 0 : 1L << i, maxNanos.get());
+                        }
+                    }
+                    return maxNanos.get();
+                }
+
+                private static String millis(long nanos) {
+                    return String.format("%.3f ms", nanos / 1_000_000.0);
+                }
+            }
+            """;
+    }
+
+    private static String generateJfrEventClasses(CompilationContext ctx, boolean hasEvents) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(jfrEventClass(ctx, "CommandExecution", "Comando", "Comandos", "Argumentos"));
+        if (hasEvents) {
+            sb.append(jfrEventClass(ctx, "HandlerExecution", "Evento", "Eventos", null));
+        }
+        if (ctx.usesData) {
+            sb.append(jfrEventClass(ctx, "DataWrite", "Guardado de datos", "Datos", "Escrito"));
+        }
+        if (ctx.usesFetch) {
+            sb.append(jfrEventClass(ctx, "FetchRequest", "Fetch", "HTTP", "Respuesta"));
+        }
+        sb.append("""
+
+            static int payloadSize(String... values) {
+                int size = 0;
+                for (String value : values) {
+                    for (int i = 0; value != null && i < value.length(); i++) {
+                        char c = value.charAt(i);
+                        size += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+                    }
+                }
+                return size;
+            }
+            """);
+        return sb.toString();
+    }
+
+    private static String jfrEventClass(CompilationContext ctx, String className, String label, String category, String sizeLabel) {
+        String sizeField = sizeLabel == null ? "" : """
+
+                    @Label("%s")
+                    @DataAmount
+                    int payloadSize;
+                """.formatted(sizeLabel);
+        return """
+
+            @Name("%1$s.%2$s")
+            @Label("%3$s")
+            @Category({"%4$s", "%5$s"})
+            static final class %2$s extends jdk.jfr.Event {
+                @Label("Nombre")
+                String name;
+            %6$s}
+            """.formatted(ctx.pluginPackage, className, label, ctx.pluginName, category, sizeField);
+    }
+
+    private static String generateStatsCommandClass(String className) {
+        return """
+            final class %s implements CommandExecutor {
+                @Override
+                public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+                    if (args.length > 0 && args[0].equalsIgnoreCase("reset")) {
+                        LatencyStats.reset();
+                        sender.sendMessage("Latencias reiniciadas.");
+                        return true;
+                    }
+                    List<String> lines = LatencyStats.report();
+                    if (lines.isEmpty()) {
+                        sender.sendMessage("Todavía no hay mediciones.");
+                    }
+                    lines.forEach(sender::sendMessage);
+                    return true;
+                }
+            }
+            """.formatted(className);
+    }
+
+    private static String generatePlayerDataStoreClassLiteral(String pluginName) {
+        return """
+
+            static final PlayerDataStore playerData = new PlayerDataStore();
+
+            public static class PlayerDataStore {
+                private static final int MAX_SHARDS = 1024;
+                private final Path folder = Paths.get("plugins", "%1$s", "players");
+                private final Map<UUID, String> pending = new HashMap<>();
+                private final Map<UUID, Shard> loading = new HashMap<>();
+                private final Object writeLock = new Object();
+                private final Map<UUID, Shard> shards = new LinkedHashMap<>(64, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<UUID, Shard> eldest) {
+                        if (size() > MAX_SHARDS) {
+                            saveLater(eldest.getKey(), eldest.getValue());
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+                private JavaPlugin plugin;
+
+                private static class Shard {
+                    final JSONObject data = new JSONObject();
+                    boolean dirty = false;
+                    boolean loaded = false;
+                }
+
+                public void start(JavaPlugin plugin) {
+                    synchronized (this) {
+                        this.plugin = plugin;
+                    }
+                    for (Player player : plugin.getServer().getOnlinePlayers()) {
+                        load(player);
+                    }
+                }
+
+                public void close() {
+                    Map<UUID, Shard> open;
+                    synchronized (this) {
+                        plugin = null;
+                        open = new HashMap<>(loading);
+                        open.putAll(shards);
+                        shards.clear();
+                    }
+                    open.forEach((id, shard) -> {
+                        if (!shard.loaded) {
+                            complete(id, shard, readLatest(id));
+                        }
+                    });
+                    List<Runnable> writes = new ArrayList<>();
+                    synchronized (this) {
+                        open.forEach((id, shard) -> {
+                            if (shard.dirty) {
+                                String content = shard.data.toJSONString();
+                                shard.dirty = false;
+                                pending.put(id, content);
+                                writes.add(() -> write(id, content));
+                            }
+                        });
+                    }
+                    writes.forEach(Runnable::run);
+                }
+
+                public synchronized void load(Player player) {
+                    shard(player.getUniqueId());
+                }
+
+                public synchronized void unload(Player player) {
+                    UUID id = player.getUniqueId();
+                    Shard shard = shards.remove(id);
+                    if (shard != null) {
+                        saveLater(id, shard);
+                    }
+                }
+
+                public synchronized void set(CommandSender player, String key, Object value) {
+                    Shard shard = shard(idOf(player));
+                    shard.data.put(key, value);
+                    shard.dirty = true;
+                }
+
+                public synchronized Object get(CommandSender player, String key) {
+                    return shard(idOf(player)).data.get(key);
+                }
+
+                public synchronized String getString(CommandSender player, String key) {
+                    Object val = get(player, key);
+                    return val == null || val instanceof String ? (String) val : val.toString();
+                }
+
+                public synchronized int getInt(CommandSender player, String key) {
+                    return (int) asLong(get(player, key));
+                }
+
+                public synchronized long getLong(CommandSender player, String key) {
+                    return asLong(get(player, key));
+                }
+
+                public synchronized double getDouble(CommandSender player, String key) {
+                    return asDouble(get(player, key));
+                }
+
+                public synchronized boolean getBoolean(CommandSender player, String key) {
+                    return asBoolean(get(player, key));
+                }
+
+                @SuppressWarnings("unchecked")
+                public synchronized void setArray(CommandSender player, String key, List<?> list) {
+                    JSONArray array = new JSONArray();
+                    array.addAll(list);
+                    set(player, key, array);
+                }
+
+                public synchronized List<String> getArray(CommandSender player, String key) {
+                    Object val = get(player, key);
+                    if (val instanceof JSONArray arr) {
+                        List<String> result = new ArrayList<>(arr.size());
+                        for (Object o : arr) {
+                            result.add(o.toString());
+                        }
+                        return result;
+                    }
+                    return new ArrayList<>();
+                }
+
+                @SuppressWarnings("unchecked")
+                public synchronized List<Object> getArrayView(CommandSender player, String key) {
+                    Object val = get(player, key);
+                    return val instanceof JSONArray arr ? Collections.unmodifiableList(arr) : Collections.emptyList();
+                }
+
+            %2$s
+                private static UUID idOf(CommandSender sender) {
+                    if (sender instanceof Player player) {
+                        return player.getUniqueId();
+                    }
+                    throw new IllegalArgumentException("playerData solo está disponible para jugadores.");
+                }
+
+                private Shard shard(UUID id) {
+                    Shard shard = shards.get(id);
+                    if (shard == null) {
+                        shard = loading.get(id);
+                        if (shard == null) {
+                            shard = new Shard();
+                            loading.put(id, shard);
+                            requestLoad(id, shard);
+                        }
+                        shards.put(id, shard);
+                    }
+                    return shard;
+                }
+
+                private void requestLoad(UUID id, Shard shard) {
+                    if (plugin != null) {
+                        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> complete(id, shard, readLatest(id)));
+                    } else {
+                        complete(id, shard, readLatest(id));
+                    }
+                }
+
+                @SuppressWarnings("unchecked")
+                private synchronized void complete(UUID id, Shard shard, JSONObject stored) {
+                    if (shard.loaded) {
+                        return;
+                    }
+                    for (Object key : stored.keySet()) {
+                        shard.data.putIfAbsent(key, stored.get(key));
+                    }
+                    shard.loaded = true;
+                    loading.remove(id, shard);
+                    if (shards.get(id) != shard) {
+                        saveLater(id, shard);
+                    }
+                }
+
+                private JSONObject readLatest(UUID id) {
+                    String content;
+                    synchronized (this) {
+                        content = pending.get(id);
+                    }
+                    return content != null ? parse(content) : read(id);
+                }
+
+                private void saveLater(UUID id, Shard shard) {
+                    if (!shard.dirty || !shard.loaded) {
+                        return;
+                    }
+                    String content = shard.data.toJSONString();
+                    shard.dirty = false;
+                    pending.put(id, content);
+                    if (plugin != null) {
+                        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(id, content));
+                    } else {
+                        write(id, content);
+                    }
+                }
+
+                private void write(UUID id, String content) {
+                    synchronized (writeLock) {
+                        synchronized (this) {
+                            if (pending.get(id) != content) {
+                                return;
+                            }
+                        }
+                        try {
+                            Files.createDirectories(folder);
+                            Path tmp = Files.createTempFile(folder, id.toString(), ".tmp");
+                            Files.writeString(tmp, content);
+                            Files.move(tmp, folder.resolve(id + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                        synchronized (this) {
+                            pending.remove(id, content);
+                        }
+                    }
+                }
+
+                private JSONObject read(UUID id) {
+                    Path file = folder.resolve(id + ".json");
+                    if (!Files.exists(file)) {
+                        return new JSONObject();
+                    }
+                    try {
+                        return parse(Files.readString(file));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return new JSONObject();
+                    }
+                }
+
+                private JSONObject parse(String content) {
+                    try {
+                        return (JSONObject) new JSONParser().parse(content);
+                    } catch (ParseException e) {
+                        e.printStackTrace();
+                        return new JSONObject();
+                    }
+                }
             }
-            """.formatted(dataFileName, pluginName, pluginName);
+
+            @EventHandler
+            public void onPlayerDataJoin(PlayerJoinEvent event) {
+                playerData.load(event.getPlayer());
+            }
+
+            @EventHandler
+            public void onPlayerDataQuit(PlayerQuitEvent event) {
+                playerData.unload(event.getPlayer());
+            }
+            """.formatted(pluginName, generateValueConverters());
+    }
+
+    private static String generateFetchCacheClassLiteral(int ttlSeconds, int maxEntries) {
+        return """
+
+                private static final FetchCache FETCH_CACHE = new FetchCache(%d, %d);
+
+                public static String fetchCacheStats() {
+                    return FETCH_CACHE.stats();
+                }
+
+                public static class FetchCache {
+                    private record Entry(String body, String etag, long expiresAt) {
+                    }
+
+                    private final long ttlNanos;
+                    private final Map<String, CompletableFuture<String>> inFlight = new HashMap<>();
+                    private final Map<String, Entry> entries;
+                    private final AtomicLong hits = new AtomicLong();
+                    private final AtomicLong misses = new AtomicLong();
+                    private final AtomicLong coalesced = new AtomicLong();
+                    private final AtomicLong revalidated = new AtomicLong();
+
+                    FetchCache(int ttlSeconds, int maxEntries) {
+                        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+                        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+                            @Override
+                            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                                return size() > maxEntries;
+                            }
+                        };
+                    }
+
+                    public CompletableFuture<String> get(String url) {
+                        CompletableFuture<String> future;
+                        Entry stale;
+                        synchronized (this) {
+                            Entry entry = entries.get(url);
+                            if (entry != null && entry.expiresAt() - System.nanoTime() > 0) {
+                                hits.incrementAndGet();
+                                return CompletableFuture.completedFuture(entry.body());
+                            }
+                            future = inFlight.get(url);
+                            if (future != null) {
+                                coalesced.incrementAndGet();
+                                return future;
+                            }
+                            misses.incrementAndGet();
+                            future = new CompletableFuture<>();
+                            inFlight.put(url, future);
+                            stale = entry;
+                        }
+
+                        CompletableFuture<String> result = future;
+                        try {
+                            HttpRequest.Builder request = request(url);
+                            if (stale != null && stale.etag() != null) {
+                                request.header("If-None-Match", stale.etag());
+                            }
+                            HTTP.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+                                    .whenComplete((response, error) -> complete(url, stale, response, error, result));
+                        } catch (RuntimeException e) {
+                            complete(url, stale, null, e, result);
+                        }
+                        return result;
+                    }
+
+                    private void complete(String url, Entry stale, HttpResponse<String> response, Throwable error,
+                                          CompletableFuture<String> future) {
+                        Entry fresh = null;
+                        if (response != null && response.statusCode() == 304 && stale != null) {
+                            revalidated.incrementAndGet();
+                            fresh = new Entry(stale.body(), stale.etag(), System.nanoTime() + ttlNanos);
+                        } else if (response != null && response.statusCode() / 100 == 2) {
+                            String etag = response.headers().firstValue("ETag").orElse(null);
+                            fresh = new Entry(response.body(), etag, System.nanoTime() + ttlNanos);
+                        }
+                        synchronized (this) {
+                            inFlight.remove(url);
+                            if (fresh != null) {
+                                entries.put(url, fresh);
+                            }
+                        }
+                        if (fresh != null) {
+                            future.complete(fresh.body());
+                        } else if (stale != null) {
+                            future.complete(stale.body());
+                        } else if (response != null && response.statusCode() == 304) {
+                            future.completeExceptionally(new IllegalStateException(
+                                    "304 Not Modified without a cached copy of " + url));
+                        } else if (response != null) {
+                            future.complete(response.body());
+                        } else {
+                            future.completeExceptionally(error);
+                        }
+                    }
+
+                    public synchronized String stats() {
+                        return "hits=" + hits + " misses=" + misses + " coalesced=" + coalesced
+                                + " revalidated=" + revalidated + " entries=" + entries.size();
+                    }
+                }
+            """.formatted(ttlSeconds, maxEntries);
+    }
+
+    private static String generateValueConverters() {
+        return """
+                private static long asLong(Object val) {
+                    if (val instanceof Number n) {
+                        return n.longValue();
+                    }
+                    if (val instanceof String s) {
+                        try {
+                            return Long.parseLong(s.trim());
+                        } catch (NumberFormatException e) {
+                            return (long) asDouble(s);
+                        }
+                    }
+                    return 0;
+                }
+
+                private static double asDouble(Object val) {
+                    if (val instanceof Number n) {
+                        return n.doubleValue();
+                    }
+                    if (val instanceof String s) {
+                        try {
+                            return Double.parseDouble(s.trim());
+                        } catch (NumberFormatException e) {
+                            return 0;
+                        }
+                    }
+                    return 0;
+                }
+
+                private static boolean asBoolean(Object val) {
+                    if (val instanceof Boolean b) {
+                        return b;
+                    }
+                    return val instanceof String s && Boolean.parseBoolean(s.trim());
+                }
+            """;
     }
 }
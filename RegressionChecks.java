@@ -0,0 +1,515 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+public final class RegressionChecks {
+
+    private static final String USAGE = """
+            Uso: java RegressionChecks [opciones] [comprobación...]
+
+            Opciones:
+              --classpath <jars>     jars de Spigot y json-simple; no se incluyen en el repositorio y,
+                                     sin ellos, las comprobaciones que cargan el plugin generado se omiten
+
+            Comprobaciones: %s""";
+
+    private static final Map<String, Runnable> CHECKS = new LinkedHashMap<>();
+
+    static {
+        CHECKS.put("ListLowering.lower", RegressionChecks::listLowering);
+        CHECKS.put("journal", RegressionChecks::journal);
+        CHECKS.put("LocalTypes.infer", RegressionChecks::localTypes);
+        CHECKS.put("ScriptModules", RegressionChecks::scriptModules);
+        CHECKS.put("BuildCache", RegressionChecks::buildCache);
+    }
+
+    private static List<String> classpath = List.of();
+
+    private interface DirCheck {
+        void run(Path dir) throws IOException;
+    }
+
+    private RegressionChecks() {
+    }
+
+    public static void main(String[] args) {
+        List<String> selected = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--classpath") && i + 1 < args.length) {
+                classpath = Arrays.asList(args[++i].split(File.pathSeparator));
+            } else if (CHECKS.containsKey(args[i])) {
+                selected.add(args[i]);
+            } else {
+                System.out.println(USAGE.formatted(String.join(", ", CHECKS.keySet())));
+                return;
+            }
+        }
+        if (selected.isEmpty()) {
+            selected.addAll(CHECKS.keySet());
+        }
+
+        int failures = 0;
+        int skipped = 0;
+        for (String name : selected) {
+            try {
+                CHECKS.get(name).run();
+                System.out.println("ok     " + name);
+            } catch (UnsupportedOperationException e) {
+                skipped++;
+                System.out.println("omitida " + name + ": " + e.getMessage());
+            } catch (AssertionError | RuntimeException e) {
+                failures++;
+                System.out.println("FALLO  " + name + ": " + e.getMessage());
+            }
+        }
+        System.out.println(selected.size() - failures - skipped + "/" + selected.size() + " comprobaciones correctas"
+                + (skipped > 0 ? ", " + skipped + " omitidas." : "."));
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void listLowering() {
+        expect("slice + join sobre args", ListLowering.lower("""
+                sender.sendMessage(args.slice(1).join(" "));""", Set.of()), """
+                sender.sendMessage(joinFrom(args, 1, " "));""");
+        expect("push, índices y length de una lista", ListLowering.lower("""
+                let l = [];
+                l.push("a");
+                let x = l[0];
+                l[0] = "b";
+                let n = l.length;""", Set.of()), """
+                let l = [];
+                l.add("a");
+                let x = l.get(0);
+                l.set(0, "b");
+                let n = l.size();""");
+        expect("join de una lista", ListLowering.lower("""
+                let l = [];
+                l.push("a");
+                sender.sendMessage(l.join(", "));""", Set.of()), """
+                let l = [];
+                l.add("a");
+                sender.sendMessage(joinFrom(l, 0, ", "));""");
+        expect("forEach sin iterador", ListLowering.lower("""
+                let l = [];
+                l.push("a");
+                l.forEach(x => sender.sendMessage(x));""", Set.of()), """
+                let l = [];
+                l.add("a");
+                for (int x$i = 0, x$n = l.size(); x$i < x$n; x$i++) { var x = l.get(x$i); sender.sendMessage(x); }""");
+        expect("for...of sobre un array", ListLowering.lower("""
+                for (const p of args) {
+                    sender.sendMessage(p);
+                }""", Set.of()), """
+                for (final var p : args) {
+                    sender.sendMessage(p);
+                }""");
+        expect("bucle indexado sobre un array se conserva", ListLowering.lower("""
+                for (let i = 0; i < args.length; i++) {
+                    sender.sendMessage(args[i]);
+                }""", Set.of()), """
+                for (let i = 0; i < args.length; i++) {
+                    sender.sendMessage(args[i]);
+                }""");
+        expect("lista declarada en otro bloque", ListLowering.lower("""
+                let x = items[0];
+                items.push("a");""", Set.of("items")), """
+                let x = items.get(0);
+                items.add("a");""");
+        String untouched = "sender.sendMessage(\"[ok]\");";
+        check(ListLowering.lower(untouched, Set.of()) == untouched, "un cuerpo sin listas debe devolverse sin copiar");
+    }
+
+    private static void journal() {
+        if (!onClasspath("org.bukkit.plugin.java.JavaPlugin", "org.json.simple.parser.JSONParser")) {
+            throw new UnsupportedOperationException("requiere los jars de Spigot y json-simple en --classpath");
+        }
+        inTempDir("journal", dir -> {
+            String source = """
+                    package journal;
+
+                    import java.io.*;
+                    import java.nio.charset.StandardCharsets;
+                    import java.nio.file.*;
+                    import java.util.*;
+                    import org.bukkit.plugin.java.JavaPlugin;
+                    import org.bukkit.scheduler.BukkitTask;
+                    import org.json.simple.*;
+                    import org.json.simple.parser.*;
+
+                    public class Plugin {
+                    %s}
+                    """.formatted(Main.generateDataHandlerClassLiteral("Check", "data.json", 0, true, false, false))
+                    .replace("Paths.get(\"plugins\", ", "Paths.get(\"" + dir.toString().replace("\\", "\\\\") + "\", ");
+            InMemoryCompiler.Result result = InMemoryCompiler.compile(Map.of("journal.Plugin", source), Map.of(), classpath);
+            check(result.success(), "el DataHandler generado no compila: "
+                    + (result.success() ? "" : InMemoryCompiler.format(result.errors().get(0))));
+            Path folder = dir.resolve("Check");
+            Path snapshot = folder.resolve("data.json");
+            Path journal = folder.resolve("data.json.journal");
+            Path old = folder.resolve("data.json.journal.old");
+
+            Files.createDirectories(folder);
+            Files.writeString(snapshot, "{\"a\":\"1\",\"d\":\"4\"}");
+            Files.writeString(old, "{\"k\":\"b\",\"v\":\"2\"}\n");
+            Files.writeString(journal, "{\"k\":\"a\",\"v\":\"3\"}\n{\"k\":\"c\"");
+            Object data = dataHandler(result.classes());
+            expect("reproduce snapshot, .old y diario", call(data, "get", "a") + "," + call(data, "get", "b") + ","
+                    + call(data, "get", "c") + "," + call(data, "get", "d"), "3,2,null,4");
+            check(!Files.exists(old), "una compactación interrumpida debe completarse al cargar");
+            check(Files.size(journal) == 0, "tras compactar el diario debe quedar vacío");
+            call(data, "close");
+            data = dataHandler(result.classes());
+            expect("snapshot compactado", call(data, "get", "a") + "," + call(data, "get", "b") + ","
+                    + call(data, "get", "d"), "3,2,4");
+            call(data, "close");
+
+            clear(folder);
+            Files.writeString(snapshot, "{roto");
+            Files.writeString(old, "{\"k\":\"b\",\"v\":\"2\"}\n");
+            Files.writeString(journal, "{\"k\":\"a\",\"v\":\"1\"}\n");
+            data = dataHandler(result.classes());
+            call(data, "set", "c", "3");
+            call(data, "close");
+            check(Files.exists(old), "con el snapshot ilegible no se debe compactar sobre el .old");
+            expect("snapshot ilegible intacto", Files.readString(snapshot), "{roto");
+            check(Files.readString(journal).contains("\"c\"") && Files.readString(journal).contains("\"a\""),
+                    "con el snapshot ilegible los cambios deben seguir llegando al diario");
+
+            clear(folder);
+            data = dataHandler(result.classes());
+            String value = "€".repeat(1024);
+            for (int i = 0; i < 2000; i++) {
+                call(data, "set", "k" + i % 10, value + i);
+            }
+            call(data, "flush");
+            check(Files.size(journal) < 4L * 1024 * 1024, "el diario debe compactarse al superar el límite");
+            expect("bytes del diario contados en UTF-8", field(data, "journalBytes") + "", Files.size(journal) + "");
+            expect("último valor tras compactar", call(data, "get", "k9") + "", value + 1999);
+            call(data, "close");
+            expect("último valor al recargar", call(dataHandler(result.classes()), "get", "k9") + "", value + 1999);
+        });
+    }
+
+    private static void localTypes() {
+        expect("literal entero", LocalTypes.infer("""
+                let n = 1;
+                sender.sendMessage("" + n);"""), """
+                int n = 1;
+                sender.sendMessage("" + n);""");
+        expect("comparación", LocalTypes.infer("""
+                let t = 5;
+                let u = t == 2;"""), """
+                int t = 5;
+                boolean u = t == 2;""");
+        expect("tipo de llamada conocida", LocalTypes.infer("""
+                let p = sender.getServer().getPlayer("x");"""), """
+                Player p = sender.getServer().getPlayer("x");""");
+        expect("ensanchado a double", LocalTypes.infer("""
+                let n = 1;
+                n = 2.5;"""), """
+                double n = 1;
+                n = 2.5;""");
+        expect("asignación incompatible en bloque anidado", LocalTypes.infer("""
+                let x = 1;
+                if (true) { x = "y"; }"""), """
+                var x = 1;
+                if (true) { x = "y"; }""");
+        expect("asignación compuesta en bucle", LocalTypes.infer("""
+                let n = 0;
+                for (let i = 0; i < 3; i++) {
+                    n += i;
+                }"""), """
+                int n = 0;
+                for (int i = 0; i < 3; i++) {
+                    n += i;
+                }""");
+        expect("ámbitos hermanos con el mismo nombre", LocalTypes.infer("""
+                {
+                    let k = 1;
+                }
+                {
+                    let k = 2;
+                    k = "x";
+                }"""), """
+                {
+                    int k = 1;
+                }
+                {
+                    var k = 2;
+                    k = "x";
+                }""");
+        expect("multiplicación compuesta por decimal", LocalTypes.infer("""
+                let price = 3;
+                price *= 1.5;"""), """
+                double price = 3;
+                price *= 1.5;""");
+        expect("división entre enteros", LocalTypes.infer("""
+                let half = 5 / 2;"""), """
+                double half = 5 / (double) 2;""");
+        expect("división compuesta", LocalTypes.infer("""
+                let q = 10;
+                q /= 4;"""), """
+                double q = 10;
+                q /= 4;""");
+        expect("asignación compuesta de tipo desconocido", LocalTypes.infer("""
+                let total = 0;
+                total -= player.getBalance();"""), """
+                double total = 0;
+                total -= player.getBalance();""");
+        expect("incremento y resto conservan int", LocalTypes.infer("""
+                let n = 7;
+                n++;
+                --n;
+                n %= 3;"""), """
+                int n = 7;
+                n++;
+                --n;
+                n %= 3;""");
+    }
+
+    private static void scriptModules() {
+        inTempDir("modules", dir -> {
+            String entry = """
+                    import "./lib/economy.js";
+                    const util = require("./util");
+
+                    plugin(() => {
+                        name("Modular");
+                        version("2.0");
+                        package("me.demo.modular");
+                    });
+
+                    command("hola", (sender) => {
+                        sender.sendMessage("hola");
+                    });
+                    """;
+            Files.createDirectories(dir.resolve("lib"));
+            Files.writeString(dir.resolve("main.js"), entry);
+            Files.writeString(dir.resolve("lib/economy.js"), """
+                    import "../util.js";
+                    command("saldo", (sender) => {
+                        sender.sendMessage("saldo " + data.getInt("saldo"));
+                    });
+                    """);
+            Files.writeString(dir.resolve("util.js"), """
+                    import { nada } from "./main.js";
+                    plugin(() => {
+                        name("Otro");
+                        package("me.otro");
+                    });
+                    data.set("nombre", "otro.json");
+                    event("playerJoin", (event) => {
+                        event.getPlayer().sendMessage("Bienvenido");
+                    });
+                    """);
+
+            List<ScriptModules.Module> modules = ScriptModules.load(dir.resolve("main.js"), entry);
+            List<String> names = new ArrayList<>();
+            modules.forEach(module -> names.add(dir.relativize(module.path()).toString().replace(File.separatorChar, '/')));
+            expect("orden de carga sin duplicados ni ciclos", String.join(",", names), "main.js,lib/economy.js,util.js");
+
+            ScriptTree tree = ScriptModules.merge(modules);
+            expect("plugin() del script de entrada", tree.plugin().name() + " " + tree.plugin().pkg(), "Modular me.demo.modular");
+            List<String> blocks = new ArrayList<>();
+            tree.commands().forEach(cmd -> blocks.add("/" + cmd.name()));
+            tree.events().forEach(evt -> blocks.add(evt.name()));
+            expect("bloques fusionados", String.join(",", blocks), "/hola,/saldo,playerJoin");
+
+            String features = ScriptModules.featureSource(modules);
+            check(features.contains("data.getInt(\"saldo\")"), "las funciones usadas en módulos importados deben detectarse");
+            check(!features.contains("otro.json") && !features.contains("me.otro"),
+                    "el código de nivel superior de un módulo importado no debe configurar el plugin");
+
+            Files.writeString(dir.resolve("util.js"), "import \"./falta\";\n");
+            try {
+                ScriptModules.load(dir.resolve("main.js"), entry);
+                throw new AssertionError("un módulo inexistente debe fallar");
+            } catch (IOException e) {
+                check(e.getMessage().contains("'./falta'"), "el error debe nombrar el módulo: " + e.getMessage());
+            }
+        });
+    }
+
+    private static void buildCache() {
+        check(!BuildCache.key("text", "a", "b").equals(BuildCache.key("text", "ab")),
+                "las partes de la clave deben ir separadas");
+        check(!BuildCache.key("text", "a").equals(BuildCache.key("class", "a")), "el tipo debe formar parte de la clave");
+        check(BuildCache.key("text", "a", "b").equals(BuildCache.key("text", "a", "b")), "la clave debe ser estable");
+
+        inTempDir("cache", dir -> {
+            BuildCache cache = BuildCache.open(dir);
+            int[] computed = {0};
+            String key = BuildCache.key("text", "x");
+            cache.text(key, () -> "uno" + ++computed[0]);
+            expect("acierto en memoria", cache.text(key, () -> "dos" + ++computed[0]), "uno1");
+            expect("acierto en disco", BuildCache.open(dir).text(key, () -> "tres" + ++computed[0]), "uno1");
+            expect("fallo con otra clave", cache.text(BuildCache.key("text", "y"), () -> "cuatro"), "cuatro");
+            for (int i = 0; i < 5000; i++) {
+                String filler = "f" + i;
+                cache.text(BuildCache.key("text", filler), () -> filler);
+            }
+            int hits = cache.hits();
+            expect("entrada expulsada de memoria se lee de disco", cache.text(key, () -> "cinco"), "uno1");
+            check(cache.hits() == hits + 1, "la entrada expulsada debe contar como acierto");
+
+            PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+            CompilationContext ctx = new CompilationContext(dir, quiet, quiet);
+            ctx.pluginPackage = "p";
+            ctx.classpath = List.of();
+            ctx.commandRegistrations = "\n        new AlphaCommand(this);";
+            String main = "package p;\n\npublic class Main {\n    static int base = 1;\n\n    void enable() {%s\n    }\n}\n";
+            String alpha = "package p;\n\nimport static p.Main.*;\n\nfinal class AlphaCommand {\n    AlphaCommand(Main plugin) {\n        System.out.println(%s);\n    }\n}\n";
+            String beta = "package p;\n\nimport static p.Main.*;\n\nfinal class BetaCommand {\n    BetaCommand(Main plugin) {\n        System.out.println(%s);\n    }\n}\n";
+            ctx.javaSources.put("p.Main", main.formatted(ctx.commandRegistrations));
+            ctx.javaSources.put("p.AlphaCommand", alpha.formatted("base"));
+            check(compileUnits(ctx, 0, 2), "primera compilación");
+
+            ctx.javaSources.put("p.AlphaCommand", alpha.formatted("base + 1"));
+            check(compileUnits(ctx, 1, 1), "cambiar un comando solo debe recompilar ese comando");
+
+            ctx.commandRegistrations += "\n        new BetaCommand(this);";
+            ctx.javaSources.put("p.Main", main.formatted(ctx.commandRegistrations));
+            ctx.javaSources.put("p.BetaCommand", beta.formatted("base"));
+            check(compileUnits(ctx, 1, 2), "añadir un comando no debe recompilar los demás");
+
+            ctx.javaSources.put("p.Main", main.formatted(ctx.commandRegistrations).replace("base = 1", "base = 2"));
+            check(compileUnits(ctx, 0, 3), "cambiar Main debe recompilar los comandos que dependen de él");
+            check(ctx.compiledClasses.keySet().equals(Set.of("p.Main", "p.AlphaCommand", "p.BetaCommand")),
+                    "las clases de todas las unidades deben llegar al .jar: " + ctx.compiledClasses.keySet());
+        });
+    }
+
+    private static boolean compileUnits(CompilationContext ctx, int hits, int misses) {
+        ctx.buildCache = BuildCache.open(ctx.baseDir.resolve("units"));
+        if (!Main.compileJavaFiles(ctx)) {
+            return false;
+        }
+        return ctx.buildCache.hits() == hits && ctx.buildCache.misses() == misses;
+    }
+
+    private static void inTempDir(String prefix, DirCheck check) {
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory(prefix);
+            check.run(dir);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.toString(), e);
+        } finally {
+            if (dir != null) {
+                try {
+                    clear(dir);
+                    Files.deleteIfExists(dir);
+                } catch (IOException e) {
+                    System.err.println("No se pudo borrar " + dir + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void clear(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                if (!file.equals(dir)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static ClassLoader jars() {
+        URL[] urls = new URL[classpath.size()];
+        try {
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = Paths.get(classpath.get(i)).toUri().toURL();
+            }
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+        return new URLClassLoader(urls, ClassLoader.getPlatformClassLoader());
+    }
+
+    private static boolean onClasspath(String... classNames) {
+        ClassLoader loader = jars();
+        for (String className : classNames) {
+            try {
+                Class.forName(className, false, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object dataHandler(Map<String, byte[]> classes) {
+        ClassLoader loader = new ClassLoader(jars()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        try {
+            return loader.loadClass("journal.Plugin$DataHandler").getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object call(Object target, String name, Object... args) {
+        for (Method method : target.getClass().getMethods()) {
+            if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw new IllegalStateException(name + ": " + e.getCause(), e.getCause());
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        throw new IllegalStateException("No existe " + name);
+    }
+
+    private static Object field(Object target, String name) {
+        try {
+            var field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(target);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    private static void expect(String what, String actual, String expected) {
+        if (!actual.equals(expected)) {
+            throw new AssertionError(what + "\n  esperado: " + expected.replace("\n", "\n            ")
+                    + "\n  obtenido: " + actual.replace("\n", "\n            "));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public final class ScriptLexer {
+
+    public enum Kind {
+        IDENTIFIER,
+        NUMBER,
+        STRING,
+        TEMPLATE,
+        JAVA_BLOCK,
+        PUNCT
+    }
+
+    public record Token(Kind kind, String text, int start, int end) {
+
+        public boolean is(String value) {
+            return text.equals(value);
+        }
+
+        public boolean isPunct(char c) {
+            return kind == Kind.PUNCT && text.length() == 1 && text.charAt(0) == c;
+        }
+
+        public String stringValue() {
+            return text.substring(1, text.length() - 1);
+        }
+    }
+
+    private final String source;
+    private final int length;
+    private int pos;
+
+    private ScriptLexer(String source) {
+        this.source = source;
+        this.length = source.length();
+    }
+
+    public static List<Token> tokenize(String source) {
+        return new ScriptLexer(source).run();
+    }
+
+    private List<Token> run() {
+        List<Token> tokens = new ArrayList<>(length / 4);
+        while (true) {
+            skipWhitespaceAndComments();
+            if (pos >= length) {
+                return tokens;
+            }
+            int start = pos;
+            char c = source.charAt(pos);
+
+            if (c == '$' && peek(1) == '^') {
+                int close = source.indexOf("^$", pos + 2);
+                if (close < 0) {
+                    throw error("Bloque Java $^ sin cerrar", start);
+                }
+                pos = close + 2;
+                tokens.add(new Token(Kind.JAVA_BLOCK, source.substring(start, pos), start, pos));
+            } else if (c == '"' || c == '\'') {
+                skipString(c);
+                tokens.add(new Token(Kind.STRING, source.substring(start, pos), start, pos));
+            } else if (c == '`') {
+                skipTemplate();
+                tokens.add(new Token(Kind.TEMPLATE, source.substring(start, pos), start, pos));
+            } else if (Character.isJavaIdentifierStart(c)) {
+                pos++;
+                while (pos < length && Character.isJavaIdentifierPart(source.charAt(pos))) {
+                    pos++;
+                }
+                tokens.add(new Token(Kind.IDENTIFIER, source.substring(start, pos), start, pos));
+            } else if (Character.isDigit(c)) {
+                pos++;
+                while (pos < length && (Character.isLetterOrDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+                    pos++;
+                }
+                tokens.add(new Token(Kind.NUMBER, source.substring(start, pos), start, pos));
+            } else if (c == '=' && peek(1) == '>') {
+                pos += 2;
+                tokens.add(new Token(Kind.PUNCT, "=>", start, pos));
+            } else {
+                pos++;
+                tokens.add(new Token(Kind.PUNCT, String.valueOf(c), start, pos));
+            }
+        }
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (pos < length) {
+            char c = source.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '/' && peek(1) == '/') {
+                while (pos < length && source.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (c == '/' && peek(1) == '*') {
+                int close = source.indexOf("*/", pos + 2);
+                if (close < 0) {
+                    throw error("Comentario sin cerrar", pos);
+                }
+                pos = close + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipString(char quote) {
+        int start = pos++;
+        while (pos < length) {
+            char c = source.charAt(pos++);
+            if (c == '\\') {
+                pos++;
+            } else if (c == quote) {
+                return;
+            } else if (c == '\n') {
+                break;
+            }
+        }
+        throw error("Cadena sin cerrar", start);
+    }
+
+    private void skipTemplate() {
+        int start = pos++;
+        while (pos < length) {
+            char c = source.charAt(pos++);
+            if (c == '\\') {
+                pos++;
+            } else if (c == '`') {
+                return;
+            } else if (c == '$' && pos < length && source.charAt(pos) == '{') {
+                pos++;
+                skipPlaceholder();
+            }
+        }
+        throw error("Plantilla sin cerrar", start);
+    }
+
+    private void skipPlaceholder() {
+        int start = pos;
+        int depth = 1;
+        while (pos < length) {
+            char c = source.charAt(pos);
+            if (c == '"' || c == '\'') {
+                skipString(c);
+            } else if (c == '`') {
+                skipTemplate();
+            } else {
+                pos++;
+                if (c == '{') {
+                    depth++;
+                } else if (c == '}' && --depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw error("Expresión ${ sin cerrar", start);
+    }
+
+    private char peek(int offset) {
+        int i = pos + offset;
+        return i < length ? source.charAt(i) : '\0';
+    }
+
+    private RuntimeException error(String message, int offset) {
+        return new RuntimeException(message + " en la línea " + lineOf(source, offset) + ".");
+    }
+
+    static int lineOf(String source, int offset) {
+        int line = 1;
+        for (int i = 0; i < offset && i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+}
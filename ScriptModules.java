@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class ScriptModules {
+
+    private static final int PARSE_CACHE_SIZE = 512;
+
+    public record Module(Path path, String source, ScriptTree tree) {
+    }
+
+    private static final Map<String, ScriptTree> parsed = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ScriptTree> eldest) {
+                    return size() > PARSE_CACHE_SIZE;
+                }
+            });
+
+    private ScriptModules() {
+    }
+
+    public static List<Module> load(Path entry, String source) throws IOException {
+        List<Module> modules = new ArrayList<>();
+        Set<Path> seen = new HashSet<>();
+        Path root = entry.toAbsolutePath().normalize();
+        seen.add(root);
+        visit(new Module(root, source, parse(source)), modules, seen);
+        return modules;
+    }
+
+    public static ScriptTree merge(List<Module> modules) {
+        List<ScriptTree.CommandBlock> commands = new ArrayList<>();
+        List<ScriptTree.EventBlock> events = new ArrayList<>();
+        for (Module module : modules) {
+            commands.addAll(module.tree().commands());
+            events.addAll(module.tree().events());
+        }
+        return new ScriptTree(modules.get(0).tree().plugin(), List.copyOf(commands), List.copyOf(events), List.of());
+    }
+
+    public static String featureSource(List<Module> modules) {
+        StringBuilder sb = new StringBuilder(modules.get(0).source());
+        for (Module module : modules.subList(1, modules.size())) {
+            module.tree().commands().forEach(cmd -> sb.append('\n').append(cmd.body()));
+            module.tree().events().forEach(evt -> sb.append('\n').append(evt.body()));
+        }
+        return sb.toString();
+    }
+
+    private static void visit(Module module, List<Module> modules, Set<Path> seen) throws IOException {
+        modules.add(module);
+        for (String spec : module.tree().imports()) {
+            Path path = resolve(module.path(), spec);
+            if (!Files.isRegularFile(path)) {
+                throw new IOException("no se encontró el módulo '" + spec + "' importado desde " + module.path().getFileName());
+            }
+            if (seen.add(path)) {
+                String source = Files.readString(path);
+                ScriptTree tree;
+                try {
+                    tree = parse(source);
+                } catch (RuntimeException e) {
+                    throw new RuntimeException(path.getFileName() + ": " + e.getMessage(), e);
+                }
+                visit(new Module(path, source, tree), modules, seen);
+            }
+        }
+    }
+
+    private static Path resolve(Path from, String spec) {
+        Path path = from.resolveSibling(spec).normalize();
+        if (!path.getFileName().toString().contains(".")) {
+            path = path.resolveSibling(path.getFileName() + ".js");
+        }
+        return path;
+    }
+
+    private static ScriptTree parse(String source) {
+        String key = BuildCache.key("parse", source);
+        ScriptTree tree = parsed.get(key);
+        if (tree == null) {
+            tree = ScriptParser.parse(source);
+            parsed.put(key, tree);
+        }
+        return tree;
+    }
+}
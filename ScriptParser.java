@@ -0,0 +1,238 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+public final class ScriptParser {
+
+    private final String source;
+    private final List<ScriptLexer.Token> tokens;
+    private final int[] matching;
+    private final int[] lineStarts;
+
+    private String pluginName;
+    private String pluginVersion;
+    private String pluginPackage;
+    private boolean hasPlugin;
+
+    private final List<ScriptTree.CommandBlock> commands = new ArrayList<>();
+    private final List<ScriptTree.EventBlock> events = new ArrayList<>();
+    private final List<String> imports = new ArrayList<>();
+
+    private ScriptParser(String source) {
+        this.source = source;
+        this.lineStarts = indexLines(source);
+        this.tokens = ScriptLexer.tokenize(source);
+        this.matching = matchBrackets();
+    }
+
+    public static ScriptTree parse(String source) {
+        return new ScriptParser(source).run();
+    }
+
+    private ScriptTree run() {
+        int i = 0;
+        while (i < tokens.size()) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.kind() == ScriptLexer.Kind.IDENTIFIER && t.is("import") && !isPunct(i - 1, '.') && !isPunct(i + 1, '(')) {
+                i = parseImport(i);
+                continue;
+            }
+            if (t.kind() == ScriptLexer.Kind.IDENTIFIER && isPunct(i + 1, '(') && !isPunct(i - 1, '.')) {
+                switch (t.text()) {
+                    case "plugin"  -> { i = parsePlugin(i); continue; }
+                    case "command" -> { i = parseCommand(i); continue; }
+                    case "event"   -> { i = parseEvent(i); continue; }
+                    case "require" -> { i = parseRequire(i); continue; }
+                    default -> { }
+                }
+            }
+            i++;
+        }
+
+        ScriptTree.PluginInfo info = hasPlugin
+                ? new ScriptTree.PluginInfo(pluginName, pluginVersion, pluginPackage)
+                : null;
+        return new ScriptTree(info, List.copyOf(commands), List.copyOf(events), List.copyOf(imports));
+    }
+
+    private int parseImport(int i) {
+        for (int j = i + 1; j < tokens.size() && !isPunct(j, ';'); j++) {
+            if (isString(j)) {
+                imports.add(tokens.get(j).stringValue());
+                return j + 1;
+            }
+        }
+        throw syntaxError("import", i);
+    }
+
+    private int parseRequire(int i) {
+        if (!isString(i + 2) || !isPunct(i + 3, ')')) {
+            throw syntaxError("require", i);
+        }
+        imports.add(tokens.get(i + 2).stringValue());
+        return i + 4;
+    }
+
+    private int parsePlugin(int i) {
+        int bodyOpen = expectArrow(i + 2, "plugin");
+        int bodyClose = matching[bodyOpen];
+        hasPlugin = true;
+
+        for (int j = bodyOpen + 1; j < bodyClose; j++) {
+            ScriptLexer.Token t = tokens.get(j);
+            if (t.kind() != ScriptLexer.Kind.IDENTIFIER || !isPunct(j + 1, '(') || !isString(j + 2) || !isPunct(j + 3, ')')) {
+                continue;
+            }
+            String value = tokens.get(j + 2).stringValue();
+            switch (t.text()) {
+                case "name"    -> pluginName = value;
+                case "version" -> pluginVersion = value;
+                case "package" -> pluginPackage = value;
+                default -> { }
+            }
+        }
+        return bodyOpen + 1;
+    }
+
+    private int parseCommand(int i) {
+        int callOpen = i + 1;
+        if (!isString(i + 2) || !isPunct(i + 3, ',')) {
+            throw syntaxError("command", i);
+        }
+        String name = tokens.get(i + 2).stringValue();
+        String param = paramName(i + 4);
+        int bodyOpen = expectArrow(i + 4, "command");
+        int bodyClose = matching[bodyOpen];
+
+        String description = "A test command.";
+        int descStart = -1;
+        int descEnd = -1;
+        for (int j = bodyOpen + 1; j < bodyClose; j++) {
+            if (tokens.get(j).is("description") && isPunct(j + 1, '(') && isString(j + 2) && isPunct(j + 3, ')')) {
+                description = tokens.get(j + 2).stringValue();
+                descStart = tokens.get(j).start();
+                descEnd = isPunct(j + 4, ';') ? tokens.get(j + 4).end() : tokens.get(j + 3).end();
+                break;
+            }
+        }
+
+        int bodyStart = tokens.get(bodyOpen).end();
+        int bodyEnd = tokens.get(bodyClose).start();
+        String body = descStart < 0
+                ? source.substring(bodyStart, bodyEnd)
+                : source.substring(bodyStart, descStart) + source.substring(descEnd, bodyEnd);
+
+        commands.add(new ScriptTree.CommandBlock(name, param, description, body, lineOf(i)));
+        return matching[callOpen] + 1;
+    }
+
+    private int parseEvent(int i) {
+        int callOpen = i + 1;
+        if (!isString(i + 2) || !isPunct(i + 3, ',')) {
+            throw syntaxError("event", i);
+        }
+        String name = tokens.get(i + 2).stringValue();
+        String param = paramName(i + 4);
+        int bodyOpen = expectArrow(i + 4, "event");
+        int bodyClose = matching[bodyOpen];
+
+        String body = source.substring(tokens.get(bodyOpen).end(), tokens.get(bodyClose).start());
+        events.add(new ScriptTree.EventBlock(name, param, body, lineOf(i)));
+        return matching[callOpen] + 1;
+    }
+
+    private String paramName(int i) {
+        if (isPunct(i, '(')) {
+            i++;
+        }
+        ScriptLexer.Token t = i < tokens.size() ? tokens.get(i) : null;
+        return t != null && t.kind() == ScriptLexer.Kind.IDENTIFIER ? t.text() : "sender";
+    }
+
+    private int expectArrow(int i, String construct) {
+        int arrow;
+        if (isPunct(i, '(')) {
+            arrow = matching[i] + 1;
+        } else if (i < tokens.size() && tokens.get(i).kind() == ScriptLexer.Kind.IDENTIFIER) {
+            arrow = i + 1;
+        } else {
+            throw syntaxError(construct, i);
+        }
+        if (arrow >= tokens.size() || !tokens.get(arrow).is("=>") || !isPunct(arrow + 1, '{')) {
+            throw syntaxError(construct, i);
+        }
+        return arrow + 1;
+    }
+
+    private int[] matchBrackets() {
+        int[] result = new int[tokens.size()];
+        Deque<Integer> open = new ArrayDeque<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            ScriptLexer.Token t = tokens.get(i);
+            if (t.kind() != ScriptLexer.Kind.PUNCT) {
+                continue;
+            }
+            char c = t.text().charAt(0);
+            if (c == '(' || c == '{' || c == '[') {
+                open.push(i);
+            } else if (c == ')' || c == '}' || c == ']') {
+                if (open.isEmpty()) {
+                    throw new RuntimeException("'" + c + "' inesperado en la línea " + lineOf(i) + ".");
+                }
+                int o = open.pop();
+                char expected = switch (tokens.get(o).text().charAt(0)) {
+                    case '(' -> ')';
+                    case '{' -> '}';
+                    default -> ']';
+                };
+                if (c != expected) {
+                    throw new RuntimeException("Se esperaba '" + expected + "' en la línea " + lineOf(i)
+                            + " (abierto en la línea " + lineOf(o) + ").");
+                }
+                result[o] = i;
+                result[i] = o;
+            }
+        }
+        if (!open.isEmpty()) {
+            int o = open.pop();
+            throw new RuntimeException("'" + tokens.get(o).text() + "' sin cerrar en la línea " + lineOf(o) + ".");
+        }
+        return result;
+    }
+
+    private boolean isPunct(int i, char c) {
+        return i >= 0 && i < tokens.size() && tokens.get(i).isPunct(c);
+    }
+
+    private boolean isString(int i) {
+        return i < tokens.size() && tokens.get(i).kind() == ScriptLexer.Kind.STRING;
+    }
+
+    private int lineOf(int tokenIndex) {
+        int found = Arrays.binarySearch(lineStarts, tokens.get(tokenIndex).start());
+        return found >= 0 ? found + 1 : -found - 1;
+    }
+
+    private static int[] indexLines(String source) {
+        int count = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        int[] starts = new int[count];
+        int line = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                starts[line++] = i + 1;
+            }
+        }
+        return starts;
+    }
+
+    private RuntimeException syntaxError(String construct, int tokenIndex) {
+        return new RuntimeException("Sintaxis inválida en " + construct + "(...) en la línea " + lineOf(tokenIndex) + ".");
+    }
+}
@@ -0,0 +1,21 @@
+import java.util.List;
+
+public record ScriptTree(PluginInfo plugin, List<CommandBlock> commands, List<EventBlock> events, List<String> imports) {
+
+    public record PluginInfo(String name, String version, String pkg) {
+    }
+
+    public record CommandBlock(String name, String senderParam, String description, String body, int line) {
+
+        public CommandBlock withBody(String newBody) {
+            return new CommandBlock(name, senderParam, description, newBody, line);
+        }
+    }
+
+    public record EventBlock(String name, String param, String body, int line) {
+
+        public EventBlock withBody(String newBody) {
+            return new EventBlock(name, param, newBody, line);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public final class TranslationBenchmark {
+
+    private static final String USAGE = """
+            Uso: java TranslationBenchmark [opciones] [etapa...]
+
+            Opciones:
+              --sizes <n,n,...>      líneas de los scripts sintéticos (por defecto: 10,1000,100000)
+              --warmup <n>           iteraciones de calentamiento (por defecto: 3)
+              --iterations <n>       iteraciones medidas (por defecto: 5)
+              --time <ms>            duración de cada iteración (por defecto: 1000)
+
+            Etapas: %s""";
+
+    private static final CompilationContext QUIET = new CompilationContext(Paths.get(""),
+            new PrintStream(OutputStream.nullOutputStream()), new PrintStream(OutputStream.nullOutputStream()));
+
+    private static final Map<String, Function<Fixture, Object>> STAGES = new LinkedHashMap<>();
+
+    static {
+        STAGES.put("transformDataSetArrays",     f -> Main.transformDataSetArrays(f.body()));
+        STAGES.put("ListLowering.lower",         f -> ListLowering.lower(f.body(), f.listVars()));
+        STAGES.put("handleInlineJavaBlocks",     f -> Main.handleInlineJavaBlocks(f.body()));
+        STAGES.put("translateInterpolation",     f -> Main.translateInterpolation(f.body()));
+        STAGES.put("translatePropertyAccess",    f -> Main.translatePropertyAccess(f.body(), f.jsonVars()));
+        STAGES.put("foldStringConcatenation",    f -> Main.foldStringConcatenation(f.body()));
+        STAGES.put("LocalTypes.infer",           f -> LocalTypes.infer(f.body()));
+        STAGES.put("processPluginInfo",          f -> {
+            Main.processPluginInfo(QUIET, f.script(), f.info());
+            return QUIET.dataFileName;
+        });
+        STAGES.put("translateJavaScriptToJava",  f -> Main.translateJavaScriptToJava(f.body()));
+    }
+
+    private static volatile int sink;
+
+    private record Fixture(int lines, String script, String body, ScriptTree.PluginInfo info,
+                           Set<String> listVars, Set<String> jsonVars) {
+    }
+
+    private record Score(double opsPerSecond, double error, double bytesPerOp, double allocMbPerSecond) {
+    }
+
+    private TranslationBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        List<Integer> sizes = List.of(10, 1_000, 100_000);
+        int warmup = 3;
+        int iterations = 5;
+        long iterationMs = 1000;
+        List<String> selected = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            boolean hasValue = i + 1 < args.length;
+            if (args[i].equals("--sizes") && hasValue) {
+                sizes = new ArrayList<>();
+                for (String size : args[++i].split(",")) {
+                    sizes.add(Integer.parseInt(size.trim()));
+                }
+            } else if (args[i].equals("--warmup") && hasValue) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iterations") && hasValue) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--time") && hasValue) {
+                iterationMs = Long.parseLong(args[++i]);
+            } else if (STAGES.containsKey(args[i])) {
+                selected.add(args[i]);
+            } else {
+                System.out.println(USAGE.formatted(String.join(", ", STAGES.keySet())));
+                return;
+            }
+        }
+        if (selected.isEmpty()) {
+            selected.addAll(STAGES.keySet());
+        }
+
+        System.out.printf("%-28s %8s %14s %12s %14s %12s%n", "Benchmark", "Líneas", "ops/s", "± error", "B/op", "MB/s");
+        for (int lines : sizes) {
+            Fixture fixture = fixture(lines);
+            for (String name : selected) {
+                Score score = run(STAGES.get(name), fixture, warmup, iterations, iterationMs);
+                System.out.printf("%-28s %8d %14.3f %12.3f %14.0f %12.1f%n",
+                        name, lines, score.opsPerSecond(), score.error(), score.bytesPerOp(), score.allocMbPerSecond());
+            }
+        }
+    }
+
+    private static Score run(Function<Fixture, Object> stage, Fixture fixture, int warmup, int iterations, long iterationMs) {
+        for (int i = 0; i < warmup; i++) {
+            iteration(stage, fixture, iterationMs);
+        }
+
+        double[] rates = new double[iterations];
+        long totalOps = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] result = iteration(stage, fixture, iterationMs);
+            rates[i] = result[0] * 1e9 / result[1];
+            totalOps += result[0];
+            totalNanos += result[1];
+            totalBytes += result[2];
+        }
+
+        double mean = 0;
+        for (double rate : rates) {
+            mean += rate / iterations;
+        }
+        double variance = 0;
+        for (double rate : rates) {
+            variance += (rate - mean) * (rate - mean);
+        }
+        double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+
+        return new Score(mean, error, (double) totalBytes / totalOps, totalBytes / 1e6 / (totalNanos / 1e9));
+    }
+
+    private static long[] iteration(Function<Fixture, Object> stage, Fixture fixture, long iterationMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(iterationMs);
+        long allocatedBefore = BuildMetrics.allocatedBytes();
+        long start = System.nanoTime();
+        long ops = 0;
+        long now;
+        do {
+            sink += stage.apply(fixture).hashCode();
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new long[] {ops, now - start, BuildMetrics.allocatedBytes() - allocatedBefore};
+    }
+
+    private static Fixture fixture(int lines) {
+        StringBuilder body = new StringBuilder();
+        Set<String> listVars = new HashSet<>();
+        Set<String> jsonVars = new HashSet<>();
+        int written = 0;
+        for (int i = 0; written < lines; i++) {
+            String chunk = """
+                    let items%1$d = data.getArray("items%1$d");
+                    data.set("lista%1$d", ["a", "b", "c"]);
+                    for (let j = 0; j < items%1$d.length; j++) {
+                        sender.sendMessage(`Elemento ${items%1$d[j]} del comando %1$d`);
+                    }
+                    let json%1$d = JSON.parse(respuesta%1$d);
+                    sender.sendMessage(json%1$d.status);
+                    console.log(`comando %1$d ejecutado por ${sender.getName()}`);
+                    $^ getLogger().info("bloque java %1$d"); ^$
+                    let nombre%1$d = args.slice(1).join(" ");
+                    """.formatted(i);
+            for (String line : chunk.split("\n")) {
+                if (written++ < lines) {
+                    body.append(line).append('\n');
+                }
+            }
+            listVars.add("items" + i);
+            jsonVars.add("json" + i);
+        }
+
+        String script = """
+                plugin(() => {
+                    name("Bench");
+                    version("1.0");
+                    package("me.bench.plugin");
+                });
+
+                command("bench", (sender) => {
+                %s});
+                """.formatted(body);
+        ScriptTree.PluginInfo info = new ScriptTree.PluginInfo("Bench", "1.0", "me.bench.plugin");
+        return new Fixture(lines, script, body.toString(), info, listVars, jsonVars);
+    }
+}
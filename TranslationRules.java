@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public final class TranslationRules {
+
+    public enum Phase {
+        SOURCE,
+        DECLARATIONS,
+        LISTS,
+        CALLS,
+        TYPES,
+        OUTPUT
+    }
+
+    public enum Track {
+        NONE,
+        LIST,
+        JSON
+    }
+
+    public record Rule(String name, Phase phase, String literal, Pattern pattern, String replacement, Track track) {
+
+        public String apply(String code, Set<String> listVars, Set<String> jsonVars) {
+            if (literal != null && !code.contains(literal)) {
+                return code;
+            }
+            Matcher matcher = pattern.matcher(code);
+            if (!matcher.find()) {
+                return code;
+            }
+            StringBuilder sb = new StringBuilder(code.length() + 64);
+            do {
+                switch (track) {
+                    case LIST -> listVars.add(matcher.group(1));
+                    case JSON -> jsonVars.add(matcher.group(1));
+                    case NONE -> { }
+                }
+                matcher.appendReplacement(sb, replacement);
+            } while (matcher.find());
+            matcher.appendTail(sb);
+            return sb.toString();
+        }
+    }
+
+    private static final String VAR = "([a-zA-Z0-9_]+)";
+
+    public static final TranslationRules DEFAULTS = new TranslationRules(List.of(
+            rule("console.log",      Phase.SOURCE, "console.log(",   "\\bconsole\\.log\\((.+?)\\)",   "getLogger().info($1)"),
+            rule("console.error",    Phase.SOURCE, "console.error(", "\\bconsole\\.error\\((.+?)\\)", "getLogger().severe($1)"),
+            rule("console.warn",     Phase.SOURCE, "console.warn(",  "\\bconsole\\.warn\\((.+?)\\)",  "getLogger().warning($1)"),
+
+            rule("data.getArray",    Phase.DECLARATIONS, "data.getArray(",
+                    "let\\s+" + VAR + "\\s*=\\s*data\\.getArray\\(", "List<String> $1 = data.getArray(", Track.LIST),
+            typedGet("Int", "int", Track.NONE),
+            typedGet("Long", "long", Track.NONE),
+            typedGet("Double", "double", Track.NONE),
+            typedGet("Boolean", "boolean", Track.NONE),
+            typedGet("ArrayView", "List<Object>", Track.LIST),
+            rule("sender.getServer", Phase.DECLARATIONS, "sender.getServer()",
+                    "let\\s+" + VAR + "\\s*=\\s*sender\\.getServer\\(\\);", "Server $1 = sender.getServer();"),
+            rule("getPlayerExact",   Phase.DECLARATIONS, ".getPlayerExact(",
+                    "let\\s+" + VAR + "\\s*=\\s*" + VAR + "\\.getPlayerExact\\(", "Player $1 = $2.getPlayerExact("),
+            rule("getPlayer",        Phase.DECLARATIONS, ".getPlayer(",
+                    "let\\s+" + VAR + "\\s*=\\s*" + VAR + "\\.getPlayer\\(\\s*\\);", "Player $1 = $2.getPlayer();"),
+            rule("if.not",           Phase.DECLARATIONS, "if (!",
+                    "if \\(!" + VAR + "\\)", "if ($1 == null || $1.isEmpty())"),
+            rule("equals.ignoreCase", Phase.DECLARATIONS, "===",
+                    VAR + "\\.toLowerCase\\(\\)\\s*===\\s*" + VAR + "\\.toLowerCase\\(\\)",
+                    "$1.toLowerCase().equals($2.toLowerCase())"),
+
+            rule("split",            Phase.LISTS, ".split(",
+                    "let\\s+" + VAR + "\\s*=\\s*" + VAR + "\\.split\\(\"([^\"]+)\"\\)\\s*;",
+                    "String[] $1 = $2.split(\"$3\");"),
+
+            rule("fetch",            Phase.CALLS, "fetch(",
+                    "let\\s+" + VAR + "\\s*=\\s*fetch\\(\\s*([^)]+?)\\s*\\);?", "String $1 = fetch($2);"),
+            rule("fetchAsync",       Phase.CALLS, "fetchAsync(",
+                    "fetchAsync\\(\\s*(.+?)\\s*,\\s*\\(?\\s*" + VAR + "\\s*\\)?\\s*=>\\s*\\{", "fetchAsync($1, ($2) -> {"),
+            rule("JSON.parse",       Phase.CALLS, "JSON.parse(",
+                    "let\\s+" + VAR + "\\s*=\\s*JSON\\.parse\\(\\s*([^)]+?)\\s*\\);?", "JSONObject $1 = parseJson($2);", Track.JSON),
+
+            rule("let",              Phase.TYPES, "let", "\\blet\\s+", "String "),
+            rule("empty.array",      Phase.TYPES, "[]",
+                    "String\\s+" + VAR + "\\s*=\\s*\\[\\]\\s*;", "List<String> $1 = new ArrayList<>();"),
+            rule("length.zero",      Phase.TYPES, ".length",
+                    "if\\s*\\(\\s*" + VAR + "\\.length\\s*===\\s*0\\s*\\)", "if ($1.isEmpty())")
+    ), "");
+
+    private static final Map<String, TranslationRules> loaded = new ConcurrentHashMap<>();
+
+    private final Map<Phase, List<Rule>> rules = new EnumMap<>(Phase.class);
+    private final String fingerprint;
+
+    private TranslationRules(List<Rule> all, String fingerprint) {
+        for (Phase phase : Phase.values()) {
+            rules.put(phase, new ArrayList<>());
+        }
+        for (Rule rule : all) {
+            rules.get(rule.phase()).add(rule);
+        }
+        rules.replaceAll((phase, list) -> Collections.unmodifiableList(list));
+        this.fingerprint = fingerprint;
+    }
+
+    public static TranslationRules load(Path file) throws IOException {
+        String text = Files.readString(file);
+        TranslationRules cached = loaded.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        List<Rule> extra = parse(file, text);
+        List<Rule> all = new ArrayList<>();
+        for (Phase phase : Phase.values()) {
+            extra.stream().filter(r -> r.phase() == phase).forEach(all::add);
+            all.addAll(DEFAULTS.rules.get(phase));
+        }
+        TranslationRules rules = new TranslationRules(all, text);
+        TranslationRules previous = loaded.putIfAbsent(text, rules);
+        return previous != null ? previous : rules;
+    }
+
+    public List<Rule> rules(Phase phase) {
+        return rules.get(phase);
+    }
+
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    public String apply(Phase phase, String code, Set<String> listVars, Set<String> jsonVars) {
+        for (Rule rule : rules.get(phase)) {
+            code = rule.apply(code, listVars, jsonVars);
+        }
+        return code;
+    }
+
+    private static List<Rule> parse(Path file, String text) {
+        List<Rule> rules = new ArrayList<>();
+        String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String where = file.getFileName() + ":" + (i + 1);
+            int arrow = line.indexOf(" => ");
+            String[] head = (arrow < 0 ? line : line.substring(0, arrow)).split("\\s+", 3);
+            if (arrow < 0 || head.length < 3) {
+                throw new IllegalArgumentException("regla mal formada en " + where
+                        + "; se esperaba: <fase> <literal|-> <regex> => <reemplazo>");
+            }
+            Phase phase;
+            try {
+                phase = Phase.valueOf(head[0].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("fase desconocida '" + head[0] + "' en " + where);
+            }
+            try {
+                rules.add(new Rule(where, phase, head[1].equals("-") ? null : head[1], Pattern.compile(head[2]),
+                        line.substring(arrow + 4), Track.NONE));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("expresión regular inválida en " + where + ": " + e.getDescription());
+            }
+        }
+        return rules;
+    }
+
+    private static Rule typedGet(String suffix, String type, Track track) {
+        return rule("get" + suffix, Phase.DECLARATIONS, "get" + suffix + "(",
+                "let\\s+" + VAR + "\\s*=\\s*((?:data|playerData)\\.get" + suffix + "\\()", type + " $1 = $2", track);
+    }
+
+    private static Rule rule(String name, Phase phase, String literal, String regex, String replacement) {
+        return rule(name, phase, literal, regex, replacement, Track.NONE);
+    }
+
+    private static Rule rule(String name, Phase phase, String literal, String regex, String replacement, Track track) {
+        return new Rule(name, phase, literal, Pattern.compile(regex), replacement, track);
+    }
+}